@@ -0,0 +1,404 @@
+package chess;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Analyzes a position in the background, and streams the results as the
+ * search deepens. Each update holds the best few moves (multi-PV), each
+ * with its score and principal variation, at the depth just finished.
+ *
+ * Updates are published to any number of subscribers through
+ * {@link Flow.Publisher}. The search never waits for a subscriber: each
+ * subscriber only holds the newest update it hasn't received yet, so when
+ * a subscriber is slow, or hasn't requested more, older updates are
+ * replaced by newer ones (coalesced) instead of being queued. A subscriber
+ * that requests one update at a time will always get the newest one.
+ * Updates are delivered on the given executor, never on the search thread.
+ *
+ * The analysis works on a copy of the game, so the game can be changed
+ * while the analysis runs.
+ *
+ * @author	Sindre Stephansen
+ * @see		Search#setLines
+ * @see		Flow
+ */
+public class Analysis implements Flow.Publisher<Analysis.Update> {
+	/**
+	 * One of the best moves, with its score and expected line of play.
+	 */
+	public static final class Line {
+		/**
+		 * The rank of the line, where 0 is the best.
+		 */
+		public final int rank;
+
+		/**
+		 * The score in centipawns, from the point of view of the player to move.
+		 */
+		public final int score;
+
+		private final int[] pv;
+
+		Line(int rank, int score, int[] pv) {
+			this.rank = rank;
+			this.score = score;
+			this.pv = pv;
+		}
+
+		/**
+		 * Returns the expected line of play, starting with the move of this line.
+		 *
+		 * @return	The principal variation, as packed moves
+		 * @see		PackedMove
+		 */
+		public int[] pv() {
+			return pv.clone();
+		}
+
+		@Override
+		public String toString() {
+			return (rank + 1) + ": " + score + " " + Search.pvString(pv, pv.length);
+		}
+	}
+
+	/**
+	 * The result of one finished iteration of the search.
+	 */
+	public static final class Update {
+		/**
+		 * The depth that was finished, in plies.
+		 */
+		public final int depth;
+
+		/**
+		 * The number of positions searched so far.
+		 */
+		public final long nodes;
+
+		/**
+		 * The time since the analysis started, in nanoseconds.
+		 */
+		public final long time;
+
+		/**
+		 * The best moves, best first.
+		 */
+		public final List<Line> lines;
+
+		Update(int depth, long nodes, long time, List<Line> lines) {
+			this.depth = depth;
+			this.nodes = nodes;
+			this.time = time;
+			this.lines = lines;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder builder = new StringBuilder();
+			builder.append("depth ").append(depth).append(" nodes ").append(nodes);
+			for (Line line : lines) {
+				builder.append('\n').append(line);
+			}
+			return builder.toString();
+		}
+	}
+
+	// The subscription of one subscriber. Updates are handed over through
+	// a single slot, and delivered by a drain loop that runs on the executor
+	// and is never run by two threads at once.
+	private final class Subscription implements Flow.Subscription, Runnable {
+		final Flow.Subscriber<? super Update> subscriber;
+		final AtomicReference<Update> pending = new AtomicReference<Update>();
+		final AtomicLong demand = new AtomicLong();
+		final AtomicInteger work = new AtomicInteger();
+		volatile boolean cancelled = false;
+		volatile boolean completed = false;
+		volatile Throwable error = null;
+		boolean subscribed = false;
+		boolean done = false;
+
+		Subscription(Flow.Subscriber<? super Update> subscriber) {
+			this.subscriber = subscriber;
+		}
+
+		void offer(Update update) {
+			if (pending.getAndSet(update) != null) {
+				coalesced.incrementAndGet();
+			}
+			schedule();
+		}
+
+		void complete(Throwable throwable) {
+			error = throwable;
+			completed = true;
+			schedule();
+		}
+
+		void schedule() {
+			if (work.getAndIncrement() == 0) {
+				executor.execute(this);
+			}
+		}
+
+		public void request(long n) {
+			if (n <= 0) {
+				complete(new IllegalArgumentException("The number of items requested must be positive"));
+				return;
+			}
+
+			long current;
+			long next;
+			do {
+				current = demand.get();
+				next = current + n < 0 ? Long.MAX_VALUE : current + n;
+			} while (!demand.compareAndSet(current, next));
+			schedule();
+		}
+
+		public void cancel() {
+			cancelled = true;
+			subscriptions.remove(this);
+		}
+
+		public void run() {
+			do {
+				drain();
+			} while (work.decrementAndGet() != 0);
+		}
+
+		private void drain() {
+			if (done) {
+				return;
+			}
+			if (!subscribed) {
+				subscribed = true;
+				subscriber.onSubscribe(this);
+			}
+
+			while (!cancelled && demand.get() > 0) {
+				Update update = pending.getAndSet(null);
+				if (update == null) {
+					break;
+				}
+				demand.decrementAndGet();
+				subscriber.onNext(update);
+			}
+
+			if (cancelled) {
+				done = true;
+			} else if (completed && (pending.get() == null || error != null)) {
+				done = true;
+				subscriptions.remove(this);
+				if (error != null) {
+					subscriber.onError(error);
+				} else {
+					subscriber.onComplete();
+				}
+			}
+		}
+	}
+
+	// Delivers updates when no executor is given
+	private static final ExecutorService DEFAULT_EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "chess-analysis-delivery");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	/*
+	 * Attributes
+	 */
+
+	private final Game game = new Game();
+	private final Search search;
+	private final Executor executor;
+	private final List<Subscription> subscriptions = new CopyOnWriteArrayList<Subscription>();
+	private final AtomicLong coalesced = new AtomicLong();
+
+	private volatile Update latest = null;
+	private volatile boolean finished = false;
+
+	// Set by stop, since a search forgets a stop that comes before it starts
+	private volatile boolean stopRequested = false;
+	private Throwable failure = null;
+	private Thread thread = null;
+
+	/*
+	 * Constructors
+	 */
+
+	/**
+	 * Class constructor. Updates are delivered on a shared pool of daemon threads.
+	 *
+	 * @param game	The game to analyze the current position of
+	 * @param lines	The number of best moves to find
+	 * @throws		IllegalArgumentException	If lines is less than 1
+	 */
+	public Analysis(Game game, int lines) {
+		this(game, lines, DEFAULT_EXECUTOR);
+	}
+
+	/**
+	 * Class constructor.
+	 *
+	 * @param game		The game to analyze the current position of
+	 * @param lines		The number of best moves to find
+	 * @param executor	The executor to deliver updates on
+	 * @throws			IllegalArgumentException	If lines is less than 1
+	 */
+	public Analysis(Game game, int lines, Executor executor) {
+		this.game.copyFrom(game);
+		this.game.setNetwork(game.getNetwork());
+		this.executor = executor;
+		this.search = new Search(this.game);
+		this.search.setLines(lines);
+		this.search.setListener(new Search.Listener() {
+			public void iterationFinished(Search search) {
+				publish(search);
+				// The search might have started after stop was called
+				if (stopRequested) {
+					search.stop();
+				}
+			}
+		});
+	}
+
+	/*
+	 * Utility methods
+	 */
+
+	private synchronized void publish(Search search) {
+		List<Line> lines = new ArrayList<Line>(search.lines());
+		for (int i = 0; i < search.lines(); i++) {
+			lines.add(new Line(i, search.lineScore(i), search.linePv(i)));
+		}
+
+		Update update = new Update(search.depth(), search.nodes(), search.elapsed(),
+				Collections.unmodifiableList(lines));
+		latest = update;
+		for (Subscription subscription : subscriptions) {
+			subscription.offer(update);
+		}
+	}
+
+	private synchronized void finish(Throwable throwable) {
+		failure = throwable;
+		finished = true;
+		for (Subscription subscription : subscriptions) {
+			subscription.complete(throwable);
+		}
+	}
+
+	/*
+	 * Public methods
+	 */
+
+	/**
+	 * Adds a subscriber. It receives the newest update, if there is one,
+	 * and the updates after that, as far as it requests them. If the
+	 * analysis has already finished, it receives the last update and is
+	 * then completed.
+	 *
+	 * @param subscriber	The subscriber
+	 */
+	public synchronized void subscribe(Flow.Subscriber<? super Update> subscriber) {
+		Subscription subscription = new Subscription(subscriber);
+		if (latest != null) {
+			subscription.pending.set(latest);
+		}
+
+		if (finished) {
+			subscription.complete(failure);
+		} else {
+			subscriptions.add(subscription);
+			subscription.schedule();
+		}
+	}
+
+	/**
+	 * Starts the analysis on a new thread. It runs until the given depth
+	 * is finished, the time runs out, or {@link #stop} is called, and then
+	 * the subscribers are completed.
+	 *
+	 * @param maxDepth	The maximum depth to search, in plies
+	 * @param millis	The time to search for, in milliseconds, or 0 for no limit
+	 * @throws			IllegalStateException	If the analysis has already been started
+	 */
+	public synchronized void start(final int maxDepth, final long millis) {
+		if (thread != null) {
+			throw new IllegalStateException("The analysis has already been started");
+		}
+
+		thread = new Thread(new Runnable() {
+			public void run() {
+				try {
+					if (!stopRequested) {
+						search.search(maxDepth, millis);
+					}
+					finish(null);
+				} catch (RuntimeException e) {
+					finish(e);
+				}
+			}
+		}, "chess-analysis");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stops the analysis as soon as possible. The subscribers are completed
+	 * when the search has stopped. If the search hasn't started yet, it is
+	 * stopped after its first iteration, or isn't started at all.
+	 */
+	public void stop() {
+		stopRequested = true;
+		search.stop();
+	}
+
+	/**
+	 * Waits for the analysis to finish.
+	 *
+	 * @throws	InterruptedException	If the thread is interrupted while waiting
+	 */
+	public void join() throws InterruptedException {
+		Thread t;
+		synchronized (this) {
+			t = thread;
+		}
+		if (t != null) {
+			t.join();
+		}
+	}
+
+	/**
+	 * Returns the newest update.
+	 *
+	 * @return	The newest update, or null if no iteration has finished yet
+	 */
+	public Update latest() {
+		return latest;
+	}
+
+	/**
+	 * Returns the number of updates that were replaced by a newer one
+	 * before a subscriber received them, summed over all subscribers.
+	 *
+	 * @return	The number of coalesced updates
+	 */
+	public long coalesced() {
+		return coalesced.get();
+	}
+}
@@ -0,0 +1,360 @@
+package chess;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Scores large numbers of positions on a pool of threads, either with
+ * the static evaluation or with a search to a fixed depth. This is used
+ * for generating training data, where millions of positions are scored.
+ *
+ * Each thread has its own scratch game, that every position is loaded
+ * into, and its own search, so no game or search is created per
+ * position. The positions are split into chunks, and the threads take
+ * positions from the current chunk until it is done, so a thread that
+ * gets the slow positions doesn't hold the others back. The scores
+ * always come back in the order of the positions.
+ *
+ * The transposition table and the move ordering history of a search are
+ * cleared before every position, so the score of a position doesn't
+ * depend on which positions the same thread scored before it.
+ *
+ * Scores are in centipawns, from the point of view of the player to
+ * move. A position without legal moves is scored as mate or a draw.
+ *
+ * @author	Sindre Stephansen
+ * @see		Evaluation
+ * @see		Search
+ */
+public class BatchEvaluator implements Closeable {
+	/**
+	 * Receives the scores of the positions, in the order of the positions.
+	 */
+	public interface Handler {
+		/**
+		 * Called with the score of a position.
+		 *
+		 * @param index	The index of the position, counting from 0
+		 * @param fen	The position in FEN
+		 * @param score	The score in centipawns, from the point of view of the player to move
+		 */
+		public void result(long index, String fen, int score);
+	}
+
+	// The scratch game and search of one thread
+	private static final class Worker {
+		final Game game = new Game();
+		final Search search = new Search(game, new TranspositionTable(TABLE_BITS));
+	}
+
+	/**
+	 * The number of positions scored at a time, when reading from an iterator.
+	 */
+	public static final int CHUNK_SIZE = 4096;
+
+	// Small enough that clearing it for every position is cheap
+	private static final int TABLE_BITS = 16;
+
+	/*
+	 * Attributes
+	 */
+
+	private final int depth;
+	private final Worker[] workers;
+	private final ExecutorService executor;
+
+	private long positions = 0;
+	private long time = 0;
+
+	/*
+	 * Constructors
+	 */
+
+	/**
+	 * Class constructor.
+	 *
+	 * @param threads	The number of threads to score positions on
+	 * @param depth		The depth to search each position to, in plies, or 0 for the static evaluation
+	 * @param network	The network to evaluate with, or null to use the piece-square tables
+	 * @throws			IllegalArgumentException	If threads is less than 1 or depth is negative
+	 */
+	public BatchEvaluator(int threads, int depth, NeuralNetwork network) {
+		if (threads < 1 || depth < 0) {
+			throw new IllegalArgumentException("Invalid number of threads or depth");
+		}
+
+		this.depth = depth;
+		this.workers = new Worker[threads];
+		for (int i = 0; i < threads; i++) {
+			workers[i] = new Worker();
+			workers[i].game.setNetwork(network);
+		}
+		this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "chess-batch-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/*
+	 * Utility methods
+	 */
+
+	private int score(Worker worker, String fen) {
+		Game game = worker.game;
+		Fen.load(game, fen);
+
+		if (depth == 0) {
+			return Evaluation.evaluate(game);
+		}
+
+		worker.search.table().clear();
+		worker.search.clearHistory();
+		if (worker.search.search(depth, 0) == null) {
+			return game.isInCheck(game.getCurrentColor()) ? -Search.MATE : 0;
+		}
+		return worker.search.score();
+	}
+
+	// Scores the first n positions, with every thread taking the next
+	// position that no thread has taken yet
+	private void run(final String[] fens, final int n, final int[] scores) {
+		long start = System.nanoTime();
+		final AtomicInteger next = new AtomicInteger();
+		List<Future<Void>> futures = new ArrayList<Future<Void>>();
+
+		for (final Worker worker : workers) {
+			futures.add(executor.submit(new Callable<Void>() {
+				public Void call() {
+					int i;
+					while ((i = next.getAndIncrement()) < n) {
+						scores[i] = score(worker, fens[i]);
+					}
+					return null;
+				}
+			}));
+		}
+
+		try {
+			for (Future<Void> future : futures) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			// Make the other threads stop early
+			next.set(n);
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while scoring positions", e);
+		} catch (ExecutionException e) {
+			next.set(n);
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IllegalStateException(e.getCause());
+		}
+
+		positions += n;
+		time += System.nanoTime() - start;
+	}
+
+	/*
+	 * Public methods
+	 */
+
+	/**
+	 * Scores an array of positions.
+	 *
+	 * @param fens	The positions in FEN
+	 * @return		The scores, in the same order as the positions
+	 * @throws		IllegalArgumentException	If a position isn't valid FEN
+	 */
+	public int[] evaluate(String[] fens) {
+		int[] scores = new int[fens.length];
+		run(fens, fens.length, scores);
+		return scores;
+	}
+
+	/**
+	 * Scores the positions of an iterator, {@link #CHUNK_SIZE} at a time,
+	 * and hands the scores to the handler on the calling thread, in the
+	 * order of the positions. Only one chunk is kept in memory, so the
+	 * number of positions isn't limited.
+	 *
+	 * @param fens		The positions in FEN
+	 * @param handler	The handler to give the scores to
+	 * @throws			IllegalArgumentException	If a position isn't valid FEN
+	 */
+	public void evaluate(Iterator<String> fens, Handler handler) {
+		String[] chunk = new String[CHUNK_SIZE];
+		int[] scores = new int[CHUNK_SIZE];
+		long index = 0;
+
+		while (fens.hasNext()) {
+			int n = 0;
+			while (n < CHUNK_SIZE && fens.hasNext()) {
+				chunk[n++] = fens.next();
+			}
+
+			run(chunk, n, scores);
+			for (int i = 0; i < n; i++) {
+				handler.result(index++, chunk[i], scores[i]);
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of positions scored so far.
+	 *
+	 * @return	The number of positions
+	 */
+	public long positions() {
+		return positions;
+	}
+
+	/**
+	 * Returns the time spent scoring positions so far.
+	 *
+	 * @return	The time in nanoseconds
+	 */
+	public long time() {
+		return time;
+	}
+
+	/**
+	 * Returns the number of positions scored per second so far.
+	 *
+	 * @return	The number of positions per second
+	 */
+	public double positionsPerSecond() {
+		return time > 0 ? positions / (time / 1e9) : 0;
+	}
+
+	/**
+	 * Shuts down the threads. The evaluator can't be used after this.
+	 */
+	public void close() {
+		executor.shutdown();
+	}
+
+	static void usage() {
+		System.err.println("Usage: java chess.BatchEvaluator [options]");
+		System.err.println("  -input FILE       Read positions from FILE, one FEN per line (default: standard input)");
+		System.err.println("  -output FILE      Write 'score fen' lines to FILE (default: standard output)");
+		System.err.println("  -depth N          Depth to search each position to, or 0 for the static evaluation (default 0)");
+		System.err.println("  -threads N        Number of threads (default: number of cores)");
+		System.err.println("  -network FILE     Evaluate with the neural network in FILE");
+		System.exit(1);
+	}
+
+	public static void main(String[] args) throws IOException {
+		String input = null;
+		String output = null;
+		int depth = 0;
+		int threads = Runtime.getRuntime().availableProcessors();
+		NeuralNetwork network = null;
+
+		try {
+			for (int i = 0; i < args.length; i += 2) {
+				String value = args[i + 1];
+				switch (args[i]) {
+				case "-input":
+					input = value;
+					break;
+				case "-output":
+					output = value;
+					break;
+				case "-depth":
+					depth = Integer.parseInt(value);
+					break;
+				case "-threads":
+					threads = Integer.parseInt(value);
+					break;
+				case "-network":
+					network = NeuralNetwork.load(value);
+					break;
+				default:
+					usage();
+				}
+			}
+		} catch (RuntimeException e) {
+			usage();
+		}
+
+		if (depth < 0 || threads <= 0) {
+			usage();
+		}
+
+		Reader reader = input == null ? new InputStreamReader(System.in) : new FileReader(input);
+		final BufferedReader in = new BufferedReader(reader);
+		final PrintWriter out = new PrintWriter(new BufferedWriter(output == null ?
+				new OutputStreamWriter(System.out) : new FileWriter(output)));
+		BatchEvaluator evaluator = new BatchEvaluator(threads, depth, network);
+
+		// Reads the non-empty lines of the input
+		Iterator<String> lines = new Iterator<String>() {
+			private String next = null;
+
+			public boolean hasNext() {
+				try {
+					while (next == null || next.isEmpty()) {
+						next = in.readLine();
+						if (next == null) {
+							return false;
+						}
+						next = next.trim();
+					}
+					return true;
+				} catch (IOException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+
+			public String next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				String line = next;
+				next = null;
+				return line;
+			}
+		};
+
+		try {
+			evaluator.evaluate(lines, new Handler() {
+				public void result(long index, String fen, int score) {
+					out.println(score + " " + fen);
+				}
+			});
+		} finally {
+			evaluator.close();
+			in.close();
+			out.close();
+		}
+
+		System.err.printf("Scored %d positions in %.1f s (%.0f positions/s)%n",
+				evaluator.positions(), evaluator.time() / 1e9, evaluator.positionsPerSecond());
+	}
+}
@@ -0,0 +1,158 @@
+package chess;
+
+import java.io.IOException;
+
+/**
+ * Searches a fixed set of positions to a fixed depth, and reports the
+ * time and number of nodes it took to reach each depth. Since the
+ * positions and depth are the same every time, the node counts only
+ * change when the search changes, and the numbers can be compared
+ * between versions of the search, or with parts of it turned off.
+ *
+ * Run with -help for a list of options.
+ *
+ * @author	Sindre Stephansen
+ * @see		Search
+ */
+public class Bench {
+	/**
+	 * The positions searched by default. Castling and en passant are
+	 * left out, since the game doesn't support them.
+	 */
+	static final String[] POSITIONS = {
+		Fen.START,
+		"r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w - - 0 1",
+		"8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+		"r2q1rk1/pP1p2pp/Q4n2/bbp1p3/Np6/1B3NBn/pPPP1PPP/R3K2R b - - 0 1",
+		"rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w - - 1 8",
+		"r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - - 0 10",
+		"6k1/5ppp/8/8/8/8/5PPP/3R2K1 w - - 0 1",
+		"8/8/4k3/8/3PK3/8/8/8 w - - 0 1",
+	};
+
+	/*
+	 * Attributes
+	 */
+
+	int depth = 6;
+	String disable = "";
+	NeuralNetwork network = null;
+
+	/*
+	 * Utility methods
+	 */
+
+	/**
+	 * Turns off the techniques in a comma separated list, using the names
+	 * 'hash', 'pvs', 'aspiration', 'nullmove', 'lmr' and 'futility'.
+	 *
+	 * @param options	The options to change
+	 * @param list		The techniques to turn off
+	 * @throws			IllegalArgumentException	If a name is unknown
+	 */
+	static void disable(Search.Options options, String list) {
+		for (String name : list.split(",")) {
+			switch (name.trim()) {
+			case "":
+				break;
+			case "hash":
+				options.hashTable = false;
+				break;
+			case "pvs":
+				options.pvs = false;
+				break;
+			case "aspiration":
+				options.aspiration = false;
+				break;
+			case "nullmove":
+				options.nullMove = false;
+				break;
+			case "lmr":
+				options.lateMoveReductions = false;
+				break;
+			case "futility":
+				options.futility = false;
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown option: " + name);
+			}
+		}
+	}
+
+	void run() {
+		long totalNodes = 0;
+		long totalTime = 0;
+
+		for (int i = 0; i < POSITIONS.length; i++) {
+			Game game = Fen.parse(POSITIONS[i]);
+			game.setNetwork(network);
+			final Search search = new Search(game);
+			disable(search.options, disable);
+
+			// Print the time to each depth as the search reaches it
+			final StringBuilder line = new StringBuilder();
+			search.setListener(new Search.Listener() {
+				public void iterationFinished(Search search) {
+					line.append(String.format(" %d:%.0fms", search.depth(), search.elapsed() / 1e6));
+				}
+			});
+
+			if (i == 0) {
+				System.out.println("Options: " + search.options);
+			}
+
+			long start = System.nanoTime();
+			Move move = search.search(depth, 0);
+			long time = System.nanoTime() - start;
+
+			totalNodes += search.nodes();
+			totalTime += time;
+			System.out.printf("%d: %-6s score=%-6d nodes=%-10d time=%.0fms%s%n",
+					i + 1, move == null ? "none" : PackedMove.toString(PackedMove.of(move)),
+					search.score(), search.nodes(), time / 1e6, line);
+		}
+
+		System.out.printf("Total:  nodes=%d time=%.0fms nps=%.0f%n",
+				totalNodes, totalTime / 1e6, totalNodes / (totalTime / 1e9));
+	}
+
+	static void usage() {
+		System.err.println("Usage: java chess.Bench [options]");
+		System.err.println("  -depth N          Depth to search each position to (default 6)");
+		System.err.println("  -disable LIST     Turn off some of hash,pvs,aspiration,nullmove,lmr,futility");
+		System.err.println("  -network FILE     Evaluate with the neural network in FILE");
+		System.exit(1);
+	}
+
+	public static void main(String[] args) throws IOException {
+		Bench b = new Bench();
+
+		try {
+			for (int i = 0; i < args.length; i += 2) {
+				String value = args[i + 1];
+				switch (args[i]) {
+				case "-depth":
+					b.depth = Integer.parseInt(value);
+					break;
+				case "-disable":
+					b.disable = value;
+					disable(new Search.Options(), value);
+					break;
+				case "-network":
+					b.network = NeuralNetwork.load(value);
+					break;
+				default:
+					usage();
+				}
+			}
+		} catch (RuntimeException e) {
+			usage();
+		}
+
+		if (b.depth <= 0) {
+			usage();
+		}
+
+		b.run();
+	}
+}
@@ -1,11 +1,17 @@
 package chess;
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
+
 import javafx.application.Application;
+import javafx.concurrent.Task;
+import javafx.concurrent.WorkerStateEvent;
 import javafx.event.EventHandler;
-import javafx.scene.Node;
+import javafx.geometry.HPos;
+import javafx.geometry.VPos;
 import javafx.scene.Scene;
 import javafx.scene.control.Label;
+import javafx.scene.control.ProgressIndicator;
 import javafx.scene.input.MouseEvent;
 import javafx.scene.layout.Background;
 import javafx.scene.layout.BackgroundFill;
@@ -23,7 +29,16 @@ public class Chess extends Application {
 	Game game = new Game();
 	Pos selected = null;
 	Move[] moves = null;
+	Task<Move[]> pendingMoves = null;
+	
+	// The computer player for black, if one was asked for with --bot=SPEC,
+	// where SPEC is a player as given to Tournament, like ponder:time:1000
+	Player bot = null;
+	Task<Move> pendingBotMove = null;
+	ProgressIndicator progress = new ProgressIndicator();
+	GuiExecutor executor;
     final int size = 8;
+    final double squareSize = 80;
     BorderWidths borderw = new BorderWidths(20.0);
     
     Color white = Color.WHITE;
@@ -37,6 +52,28 @@ public class Chess extends Application {
     BackgroundFill redFill = new BackgroundFill(red, null, null);
     BackgroundFill blueFill = new BackgroundFill(blue, null, null);
     BackgroundFill greenFill = new BackgroundFill(green, null, null);
+    
+    // The backgrounds and the border are shared by all squares,
+    // so they are only created once.
+    Background whiteBackground = new Background(whiteFill);
+    Background blackBackground = new Background(blackFill);
+    Background redBackground = new Background(redFill);
+    Background blueBackground = new Background(blueFill);
+    Background greenBackground = new Background(greenFill);
+    Border border = new Border(new BorderStroke(black, null, null, borderw));
+    
+    // When this is false every square is redrawn on each update
+    boolean incrementalRendering = true;
+    
+    // The squares are indexed from 0 to 63, left to right, bottom to top
+    StackPane[] squares = new StackPane[size*size];
+    Label[] labels = new Label[size*size];
+    boolean[] targets = new boolean[size*size];
+    Move[] targetsFor = null;
+    
+    // What is currently shown on each square
+    Background[] shownBackground = new Background[size*size];
+    String[] shownText = new String[size*size];
 
     public void start(Stage primaryStage) {
     	root.getStylesheets().add(getClass().getResource("style.css").toExternalForm());
@@ -46,8 +83,13 @@ public class Chess extends Application {
                 Label label = new Label("p");
                 StackPane pane = new StackPane(label);
                 root.add(pane, col, row);
-                pane.setMaxSize(80, 80);
-                pane.setMinSize(80, 80);
+                pane.setMaxSize(squareSize, squareSize);
+                pane.setMinSize(squareSize, squareSize);
+                pane.setBorder(border);
+                
+                int square = col + size*(7-row);
+                squares[square] = pane;
+                labels[square] = label;
             }
         }
         
@@ -65,92 +107,31 @@ public class Chess extends Application {
         root.add(loadPane, size, 2, 1, 2);
         root.add(undoPane, size, 4, 1, 2);
         root.add(redoPane, size, 6, 1, 2);
+        
+        // Shown on top of the board while a long operation is running
+        root.add(progress, 0, 0, size, size);
+        GridPane.setHalignment(progress, HPos.CENTER);
+        GridPane.setValignment(progress, VPos.CENTER);
+        progress.setMouseTransparent(true);
+        executor = new GuiExecutor(progress);
+        
+        String spec = getParameters().getNamed().get("bot");
+        if (spec != null) {
+        	bot = Tournament.createPlayer(spec, System.nanoTime());
+        }
 
         root.addEventFilter(MouseEvent.MOUSE_PRESSED, new EventHandler<MouseEvent>() {
             @Override
             public void handle(MouseEvent e) {
-                for(Node node : root.getChildren()) {
-					if(node.getBoundsInParent().contains(e.getSceneX(),  e.getSceneY())) {
-						int col = GridPane.getColumnIndex(node);
-						int row = GridPane.getRowIndex(node);
-						
-						if (col == size) {
-							FileChooser chooser = new FileChooser();
-							Stage window = new Stage();
-							if (row < 2) {
-								File file = chooser.showSaveDialog(window);
-								try {
-									game.save(file.getPath());
-								} catch (IOException e1) {
-									// TODO Auto-generated catch block
-									e1.printStackTrace();
-								}
-							} else if (row == 2 || row == 3) {
-								File file = chooser.showOpenDialog(window);
-								try {
-									game = Game.load(file.getPath());
-								} catch (IOException e1) {
-									// TODO Auto-generated catch block
-									e1.printStackTrace();
-								}
-							} else if (row == 4 || row == 5) {
-								game.undo();
-							} else if (row == 6 || row == 7) {
-								game.redo();
-							}
-						} else {
-							Pos pos = new Pos(col, 7-row);
-							Piece piece = game.getPiece(pos);
-
-							if (selected != null && selected.equals(pos)) {
-								selected = null;
-								moves = null;
-								break;
-							}
-							
-							if (selected == null || moves == null || moves.length == 0) {
-								if (piece == null) {
-									selected = null;
-									moves = null;
-								} else {
-									selected = pos;
-									try {
-										moves = game.validMoves(pos);
-									} catch (IllegalArgumentException exception) {
-										moves = null;
-									}
-								}
-							} else {
-								try {
-									boolean moved = false;
-									for (Move move : moves) {
-										if (move.target().equals(pos)) {
-											game.move(move);
-											selected = null;
-											moves = null;
-											moved = true;
-											break;
-										}
-									}
-									
-									if (!moved) {
-										if (piece == null) {
-											selected = null;
-											moves = null;
-										} else {
-											selected = pos;
-											moves = game.validMoves(pos);
-										}
-									}
-								} catch (IllegalArgumentException exception) {
-									moves = null;
-								}
-							}
-						}
-						break;
-					}
-                }
-                
+            	// The squares are laid out in a fixed grid, so the clicked
+            	// square can be computed directly from the coordinates.
+            	int col = Math.min((int) (e.getX() / squareSize), size);
+            	int row = (int) (e.getY() / squareSize);
+            	
+            	if (e.getX() >= 0 && row >= 0 && row < size) {
+            		click(col, row);
+            	}
+            	
 				update();
             }
         });
@@ -161,51 +142,277 @@ public class Chess extends Application {
         primaryStage.show();
     }
     
-    public void update() {
-    	for (Node node : root.getChildren()) {
-    		int col = GridPane.getColumnIndex(node);
-    		int row = GridPane.getRowIndex(node);
-    		if (col >= size) {
-    			continue;
-    		}
-
-    		StackPane pane = (StackPane) node;
-    		Label label = (Label) pane.getChildren().get(0);
-    		Pos pos = new Pos(col, 7-row);
-    		String text;
-    		BackgroundFill fill = null;
+    void click(int col, int row) {
+    	// The board is locked while the bot is thinking
+    	if (pendingBotMove != null) {
+    		return;
+    	}
+    	
+		if (col == size) {
+			FileChooser chooser = new FileChooser();
+			Stage window = new Stage();
+			if (row < 2) {
+				File file = chooser.showSaveDialog(window);
+				if (file != null) {
+					save(file);
+				}
+			} else if (row == 2 || row == 3) {
+				File file = chooser.showOpenDialog(window);
+				if (file != null) {
+					load(file);
+				}
+			} else if (row == 4 || row == 5) {
+				deselect();
+				game.undo();
+				
+				// Take back the bot's reply along with the player's move
+				if (bot != null && game.getTurn() % 2 == 1) {
+					game.undo();
+				}
+				// There may be nothing more to take back, and then it's the bot's turn
+				botMove();
+			} else if (row == 6 || row == 7) {
+				deselect();
+				game.redo();
+				if (bot != null && game.getTurn() % 2 == 1) {
+					game.redo();
+				}
+				botMove();
+			}
+		} else {
+			Pos pos = new Pos(col, 7-row);
+			Piece piece = game.getPiece(pos);
 
-    		if ((col + 7*row) % 2 == 0) {
-    			fill = whiteFill;
-    		} else {
-    			fill = blackFill;
+			if (selected != null && selected.equals(pos)) {
+				deselect();
+				return;
+			}
+			
+			if (moves != null) {
+				for (Move move : moves) {
+					if (move.target().equals(pos)) {
+						game.move(move);
+						deselect();
+						botMove();
+						return;
+					}
+				}
+			}
+			
+			if (piece == null) {
+				deselect();
+			} else {
+				select(pos);
+			}
+		}
+    }
+    
+    void deselect() {
+    	if (pendingMoves != null) {
+    		pendingMoves.cancel();
+    		pendingMoves = null;
+    	}
+    	selected = null;
+    	moves = null;
+    }
+    
+    // Computes the moves of the selected piece in the background. The
+    // result is thrown away if the selection changes in the meantime.
+    void select(final Pos pos) {
+    	deselect();
+    	selected = pos;
+    	
+    	final Game snapshot = new Game();
+    	snapshot.copyFrom(game);
+    	
+    	final Task<Move[]> task = new Task<Move[]>() {
+    		@Override
+    		protected Move[] call() {
+    			try {
+    				return snapshot.validMoves(pos);
+    			} catch (IllegalArgumentException e) {
+    				return null;
+    			}
+    		}
+    	};
+    	task.setOnSucceeded(new EventHandler<WorkerStateEvent>() {
+    		@Override
+    		public void handle(WorkerStateEvent e) {
+    			if (pendingMoves == task) {
+    				pendingMoves = null;
+    				moves = task.getValue();
+    				update();
+    			}
+    		}
+    	});
+    	
+    	pendingMoves = executor.submit(task, false);
+    }
+    
+    // Lets the bot choose a move in the background, if it is the bot's turn.
+    // A pondering bot keeps thinking on the player's time after it has moved.
+    void botMove() {
+    	if (bot == null || game.getTurn() % 2 != 1) {
+    		return;
+    	}
+    	
+    	final Game snapshot = new Game();
+    	snapshot.copyFrom(game);
+    	
+    	final Task<Move> task = new Task<Move>() {
+    		@Override
+    		protected Move call() {
+    			updateProgress(-1, 1);
+    			return bot.chooseMove(snapshot);
     		}
-    		
+    	};
+    	task.setOnSucceeded(new EventHandler<WorkerStateEvent>() {
+    		@Override
+    		public void handle(WorkerStateEvent e) {
+    			if (pendingBotMove == task) {
+    				pendingBotMove = null;
+    				Move move = task.getValue();
+    				
+    				// The move was chosen on the snapshot, so find it in the game
+    				if (move != null) {
+    					move = PackedMove.toMove(game, PackedMove.of(move));
+    				}
+    				if (move != null) {
+    					game.move(move);
+    				}
+    				update();
+    			}
+    		}
+    	});
+    	task.setOnFailed(new EventHandler<WorkerStateEvent>() {
+    		@Override
+    		public void handle(WorkerStateEvent e) {
+    			pendingBotMove = null;
+    			task.getException().printStackTrace();
+    		}
+    	});
+    	
+    	pendingBotMove = executor.submit(task, true);
+    }
+    
+    void save(final File file) {
+    	final Game snapshot = new Game();
+    	snapshot.copyFrom(game);
+    	
+    	final Task<Void> task = new Task<Void>() {
+    		@Override
+    		protected Void call() throws IOException {
+    			updateProgress(-1, 1);
+    			snapshot.save(file.getPath());
+    			return null;
+    		}
+    	};
+    	task.setOnFailed(new EventHandler<WorkerStateEvent>() {
+    		@Override
+    		public void handle(WorkerStateEvent e) {
+    			task.getException().printStackTrace();
+    		}
+    	});
+    	
+    	executor.submit(task, true);
+    }
+    
+    void load(final File file) {
+    	final Task<Game> task = new Task<Game>() {
+    		@Override
+    		protected Game call() throws IOException {
+    			updateProgress(-1, 1);
+    			return Game.load(file.getPath());
+    		}
+    	};
+    	task.setOnSucceeded(new EventHandler<WorkerStateEvent>() {
+    		@Override
+    		public void handle(WorkerStateEvent e) {
+    			deselect();
+    			game = task.getValue();
+    			update();
+    			botMove();
+    		}
+    	});
+    	task.setOnFailed(new EventHandler<WorkerStateEvent>() {
+    		@Override
+    		public void handle(WorkerStateEvent e) {
+    			task.getException().printStackTrace();
+    		}
+    	});
+    	
+    	executor.submit(task, true);
+    }
+    
+    /**
+     * Redraws the board. Only squares whose piece or highlight changed
+     * since the last call are touched, unless incremental rendering is
+     * turned off, in which case every square is redrawn.
+     */
+    public void update() {
+    	if (!incrementalRendering) {
+    		Arrays.fill(shownBackground, null);
+    		Arrays.fill(shownText, null);
+    	}
+    	
+    	// Mark the targets once per selection, instead of searching
+    	// through the moves for every square.
+    	if (moves != targetsFor) {
+    		Arrays.fill(targets, false);
     		if (moves != null) {
     			for (Move move : moves) {
-    				if (move.target().equals(pos)) {
-    					fill = blueFill;
-    				}
+    				Pos target = move.target();
+    				targets[target.x + size*target.y] = true;
     			}
     		}
-    		
-    		if (pos.equals(selected)) {
-    			if (moves == null || moves.length == 0) {
-    				fill = redFill;
+    		targetsFor = moves;
+    	}
+    	
+    	for (int y = 0; y < size; y++) {
+    		for (int x = 0; x < size; x++) {
+    			int square = x + size*y;
+    			int row = 7 - y;
+    			Background background;
+    			
+    			if ((x + 7*row) % 2 == 0) {
+    				background = whiteBackground;
     			} else {
-    				fill = greenFill;
+    				background = blackBackground;
+    			}
+    			
+    			if (targets[square]) {
+    				background = blueBackground;
+    			}
+    			
+    			if (selected != null && selected.equals(x, y)) {
+    				if (pendingMoves == null && (moves == null || moves.length == 0)) {
+    					background = redBackground;
+    				} else {
+    					background = greenBackground;
+    				}
+    			}
+    			
+    			Piece piece = game.getPiece(x, y);
+    			String text = piece == null ? " " : piece.toString();
+    			
+    			if (background != shownBackground[square]) {
+    				squares[square].setBackground(background);
+    				shownBackground[square] = background;
+    			}
+    			if (!text.equals(shownText[square])) {
+    				labels[square].setText(text);
+    				shownText[square] = text;
     			}
     		}
-    		
-    		try {
-    			text = game.getPiece(pos).toString();
-    		} catch (NullPointerException e) {
-    			text = " ";
-    		}
-    		
-			pane.setBackground(new Background(fill));
-			pane.setBorder(new Border(new BorderStroke(black, null, null, borderw)));
-    		label.setText(text);
+    	}
+    }
+
+    @Override
+    public void stop() {
+    	// Cancels the bot's move, and closing the bot waits for its search
+    	executor.shutdown();
+    	if (bot instanceof PonderingPlayer) {
+    		((PonderingPlayer) bot).close();
     	}
     }
 
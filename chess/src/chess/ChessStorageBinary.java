@@ -10,6 +10,8 @@ public class ChessStorageBinary implements ChessStorageInterface {
 	public static int version = 2;
 
 	public void save(Game game, String filename) throws IOException {
+		long start = Metrics.start();
+		Object event = Events.beginStorage();
 		FileOutputStream out = new FileOutputStream(filename);
 		
 		out.write(version);
@@ -41,10 +43,18 @@ public class ChessStorageBinary implements ChessStorageInterface {
 			}
 		}
 		
+		long bytes = out.getChannel().position();
 		out.close();
+		Metrics.STORAGE_WRITE.stop(start);
+		
+		if (Events.shouldCommit(event)) {
+			Events.commitStorage(event, "save", filename, bytes);
+		}
 	}
 	
 	public Game load(String filename) throws IOException {
+		long start = Metrics.start();
+		Object event = Events.beginStorage();
 		FileInputStream in = new FileInputStream(filename);
 		Piece[][] board = new Piece[8][8];
 		Game game = new Game();
@@ -73,9 +83,16 @@ public class ChessStorageBinary implements ChessStorageInterface {
 			board[x][y] = pieces[i];
 		}
 		
+		long bytes = in.getChannel().position();
 		in.close();
 
 		game.board = board;
+		game.refresh();
+		Metrics.STORAGE_READ.stop(start);
+		
+		if (Events.shouldCommit(event)) {
+			Events.commitStorage(event, "load", filename, bytes);
+		}
 		return game;
 	}
 }
\ No newline at end of file
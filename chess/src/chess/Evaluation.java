@@ -0,0 +1,312 @@
+package chess;
+
+import chess.Piece.Color;
+
+/**
+ * Static evaluation of a position, from material and piece-square tables.
+ * Every piece has a value that depends on its square, with one table for
+ * the midgame and one for the endgame. The two sums are blended by how
+ * much material is left on the board (the game phase), so a king is
+ * pushed to safety while the queens are on, and to the center once they
+ * are gone.
+ *
+ * The score of the pawn structure is added on top, see {@link PawnTable}.
+ *
+ * The sums and the phase are kept up to date by {@link Game} as pieces
+ * are moved, and the pawn structure is nearly always found in the pawn
+ * table, so evaluating a position is cheap. If the JVM is started with
+ * -Dchess.eval.verify=true, every evaluation is checked against a full
+ * recomputation, which is slow but catches any move that forgets to
+ * update them.
+ *
+ * A game can be evaluated by a {@link NeuralNetwork} instead, see
+ * {@link Game#setNetwork}.
+ *
+ * The tables are from Ronald Friederich's PeSTO.
+ *
+ * @author	Sindre Stephansen
+ * @see		Game
+ * @see		Search
+ */
+public final class Evaluation {
+	/**
+	 * The phase of the starting position. The phase counts 1 for each
+	 * knight and bishop, 2 for each rook and 4 for each queen, and goes
+	 * down towards 0 as pieces are traded.
+	 */
+	public static final int MAX_PHASE = 24;
+
+	static final boolean VERIFY = Boolean.getBoolean("chess.eval.verify");
+
+	// In the order of Piece.Type: pawn, rook, knight, bishop, queen, king
+	private static final int[] MIDGAME_VALUES = {82, 477, 337, 365, 1025, 0};
+	private static final int[] ENDGAME_VALUES = {94, 512, 281, 297, 936, 0};
+
+	/**
+	 * How much each piece type counts towards the game phase.
+	 */
+	static final int[] PHASE = {0, 2, 1, 1, 4, 0};
+
+	// The tables are seen from white, with a8 in the top left corner,
+	// so they read like a diagram of the board.
+	private static final int[][] MIDGAME_TABLES = {
+		{ // Pawn
+			  0,   0,   0,   0,   0,   0,   0,   0,
+			 98, 134,  61,  95,  68, 126,  34, -11,
+			 -6,   7,  26,  31,  65,  56,  25, -20,
+			-14,  13,   6,  21,  23,  12,  17, -23,
+			-27,  -2,  -5,  12,  17,   6,  10, -25,
+			-26,  -4,  -4, -10,   3,   3,  33, -12,
+			-35,  -1, -20, -23, -15,  24,  38, -22,
+			  0,   0,   0,   0,   0,   0,   0,   0,
+		},
+		{ // Rook
+			 32,  42,  32,  51,  63,   9,  31,  43,
+			 27,  32,  58,  62,  80,  67,  26,  44,
+			 -5,  19,  26,  36,  17,  45,  61,  16,
+			-24, -11,   7,  26,  24,  35,  -8, -20,
+			-36, -26, -12,  -1,   9,  -7,   6, -23,
+			-45, -25, -16, -17,   3,   0,  -5, -33,
+			-44, -16, -20,  -9,  -1,  11,  -6, -71,
+			-19, -13,   1,  17,  16,   7, -37, -26,
+		},
+		{ // Knight
+			-167, -89, -34, -49,  61, -97, -15, -107,
+			 -73, -41,  72,  36,  23,  62,   7,  -17,
+			 -47,  60,  37,  65,  84, 129,  73,   44,
+			  -9,  17,  19,  53,  37,  69,  18,   22,
+			 -13,   4,  16,  13,  28,  19,  21,   -8,
+			 -23,  -9,  12,  10,  19,  17,  25,  -16,
+			 -29, -53, -12,  -3,  -1,  18, -14,  -19,
+			-105, -21, -58, -33, -17, -28, -19,  -23,
+		},
+		{ // Bishop
+			-29,   4, -82, -37, -25, -42,   7,  -8,
+			-26,  16, -18, -13,  30,  59,  18, -47,
+			-16,  37,  43,  40,  35,  50,  37,  -2,
+			 -4,   5,  19,  50,  37,  37,   7,  -2,
+			 -6,  13,  13,  26,  34,  12,  10,   4,
+			  0,  15,  15,  15,  14,  27,  18,  10,
+			  4,  15,  16,   0,   7,  21,  33,   1,
+			-33,  -3, -14, -21, -13, -12, -39, -21,
+		},
+		{ // Queen
+			-28,   0,  29,  12,  59,  44,  43,  45,
+			-24, -39,  -5,   1, -16,  57,  28,  54,
+			-13, -17,   7,   8,  29,  56,  47,  57,
+			-27, -27, -16, -16,  -1,  17,  -2,   1,
+			 -9, -26,  -9, -10,  -2,  -4,   3,  -3,
+			-14,   2, -11,  -2,  -5,   2,  14,   5,
+			-35,  -8,  11,   2,   8,  15,  -3,   1,
+			 -1, -18,  -9,  10, -15, -25, -31, -50,
+		},
+		{ // King
+			-65,  23,  16, -15, -56, -34,   2,  13,
+			 29,  -1, -20,  -7,  -8,  -4, -38, -29,
+			 -9,  24,   2, -16, -20,   6,  22, -22,
+			-17, -20, -12, -27, -30, -25, -14, -36,
+			-49,  -1, -27, -39, -46, -44, -33, -51,
+			-14, -14, -22, -46, -44, -30, -15, -27,
+			  1,   7,  -8, -64, -43, -16,   9,   8,
+			-15,  36,  12, -54,   8, -28,  24,  14,
+		},
+	};
+
+	private static final int[][] ENDGAME_TABLES = {
+		{ // Pawn
+			  0,   0,   0,   0,   0,   0,   0,   0,
+			178, 173, 158, 134, 147, 132, 165, 187,
+			 94, 100,  85,  67,  56,  53,  82,  84,
+			 32,  24,  13,   5,  -2,   4,  17,  17,
+			 13,   9,  -3,  -7,  -7,  -8,   3,  -1,
+			  4,   7,  -6,   1,   0,  -5,  -1,  -8,
+			 13,   8,   8,  10,  13,   0,   2,  -7,
+			  0,   0,   0,   0,   0,   0,   0,   0,
+		},
+		{ // Rook
+			 13,  10,  18,  15,  12,  12,   8,   5,
+			 11,  13,  13,  11,  -3,   3,   8,   3,
+			  7,   7,   7,   5,   4,  -3,  -5,  -3,
+			  4,   3,  13,   1,   2,   1,  -1,   2,
+			  3,   5,   8,   4,  -5,  -6,  -8, -11,
+			 -4,   0,  -5,  -1,  -7, -12,  -8, -16,
+			 -6,  -6,   0,   2,  -9,  -9, -11,  -3,
+			 -9,   2,   3,  -1,  -5, -13,   4, -20,
+		},
+		{ // Knight
+			-58, -38, -13, -28, -31, -27, -63, -99,
+			-25,  -8, -25,  -2,  -9, -25, -24, -52,
+			-24, -20,  10,   9,  -1,  -9, -19, -41,
+			-17,   3,  22,  22,  22,  11,   8, -18,
+			-18,  -6,  16,  25,  16,  17,   4, -18,
+			-23,  -3,  -1,  15,  10,  -3, -20, -22,
+			-42, -20, -10,  -5,  -2, -20, -23, -44,
+			-29, -51, -23, -15, -22, -18, -50, -64,
+		},
+		{ // Bishop
+			-14, -21, -11,  -8,  -7,  -9, -17, -24,
+			 -8,  -4,   7, -12,  -3, -13,  -4, -14,
+			  2,  -8,   0,  -1,  -2,   6,   0,   4,
+			 -3,   9,  12,   9,  14,  10,   3,   2,
+			 -6,   3,  13,  19,   7,  10,  -3,  -9,
+			-12,  -3,   8,  10,  13,   3,  -7, -15,
+			-14, -18,  -7,  -1,   4,  -9, -15, -27,
+			-23,  -9, -23,  -5,  -9, -16,  -5, -17,
+		},
+		{ // Queen
+			 -9,  22,  22,  27,  27,  19,  10,  20,
+			-17,  20,  32,  41,  58,  25,  30,   0,
+			-20,   6,   9,  49,  47,  35,  19,   9,
+			  3,  22,  24,  45,  57,  40,  57,  36,
+			-18,  28,  19,  47,  31,  34,  39,  23,
+			-16, -27,  15,   6,   9,  17,  10,   5,
+			-22, -23, -30, -16, -16, -23, -36, -32,
+			-33, -28, -22, -43,  -5, -32, -20, -41,
+		},
+		{ // King
+			-74, -35, -18, -18, -11,  15,   4, -17,
+			-12,  17,  14,  17,  17,  38,  23,  11,
+			 10,  17,  23,  15,  20,  45,  44,  13,
+			 -8,  22,  24,  27,  26,  33,  26,   3,
+			-18,  -4,  21,  24,  27,  23,   9, -11,
+			-19,  -3,  11,  21,  23,  16,   7,  -9,
+			-27, -11,   4,  13,  14,   4,  -5, -17,
+			-53, -34, -21, -11, -28, -14, -24, -43,
+		},
+	};
+
+	/**
+	 * The midgame and endgame value of each piece on each square, including
+	 * its material, indexed by {@link Zobrist#index}*64 + square. Black
+	 * pieces have negative values, so the sums are from white's view.
+	 */
+	static final int[] MIDGAME = new int[12 * 64];
+	static final int[] ENDGAME = new int[12 * 64];
+
+	static {
+		for (int type = 0; type < 6; type++) {
+			for (int square = 0; square < 64; square++) {
+				int x = square % 8;
+				int y = square / 8;
+
+				// Row 0 of a table is rank 8 for white, and rank 1 for black
+				int white = x + 8*(7 - y);
+				int black = x + 8*y;
+
+				MIDGAME[type*64 + square] = MIDGAME_VALUES[type] + MIDGAME_TABLES[type][white];
+				ENDGAME[type*64 + square] = ENDGAME_VALUES[type] + ENDGAME_TABLES[type][white];
+				MIDGAME[(type + 6)*64 + square] = -(MIDGAME_VALUES[type] + MIDGAME_TABLES[type][black]);
+				ENDGAME[(type + 6)*64 + square] = -(ENDGAME_VALUES[type] + ENDGAME_TABLES[type][black]);
+			}
+		}
+	}
+
+	private Evaluation() {}
+
+	/*
+	 * Utility methods
+	 */
+
+	// Blends the midgame and endgame sums, and turns the result to the
+	// view of the player to move
+	private static int taper(int midgame, int endgame, int phase, Color color) {
+		phase = Math.min(phase, MAX_PHASE);
+		int score = (midgame * phase + endgame * (MAX_PHASE - phase)) / MAX_PHASE;
+		return color == Color.WHITE ? score : -score;
+	}
+
+	/*
+	 * Public methods
+	 */
+
+	/**
+	 * Evaluates the current position, from the point of view of the player
+	 * to move. This takes constant time, since the game keeps the sums
+	 * up to date as pieces move.
+	 *
+	 * @param game	The game to evaluate
+	 * @return		The score of the position in centipawns
+	 * @throws		IllegalStateException	If verification is on, and the
+	 * 				sums kept by the game are wrong
+	 */
+	public static int evaluate(Game game) {
+		if (VERIFY) {
+			verify(game);
+		}
+		if (game.accumulator != null) {
+			return game.accumulator.network.evaluate(game.accumulator, game.getCurrentColor());
+		}
+		long pawns = PawnTable.probe(game);
+		return taper(game.midgame + PawnTable.midgame(pawns), game.endgame + PawnTable.endgame(pawns),
+				game.phase, game.getCurrentColor());
+	}
+
+	/**
+	 * Evaluates the current position from scratch, by looking at every
+	 * square of the board. This gives the same result as
+	 * {@link #evaluate}, only slower.
+	 *
+	 * @param game	The game to evaluate
+	 * @return		The score of the position in centipawns
+	 */
+	public static int recompute(Game game) {
+		int midgame = 0;
+		int endgame = 0;
+		int phase = 0;
+
+		for (int x = 0; x < 8; x++) {
+			for (int y = 0; y < 8; y++) {
+				Piece piece = game.board[x][y];
+				if (piece != null) {
+					int i = Zobrist.index(piece) * 64 + x + 8*y;
+					midgame += MIDGAME[i];
+					endgame += ENDGAME[i];
+					phase += PHASE[piece.type.ordinal()];
+				}
+			}
+		}
+
+		long pawns = PawnTable.evaluate(game);
+		return taper(midgame + PawnTable.midgame(pawns), endgame + PawnTable.endgame(pawns),
+				phase, game.getCurrentColor());
+	}
+
+	/**
+	 * Checks that the incremental evaluation and the pawn key of the game
+	 * match a full recomputation.
+	 *
+	 * @param game	The game to check
+	 * @throws		IllegalStateException	If the two evaluations differ
+	 */
+	public static void verify(Game game) {
+		long pawnKey = 0;
+		for (int x = 0; x < 8; x++) {
+			for (int y = 0; y < 8; y++) {
+				Piece piece = game.board[x][y];
+				if (piece != null && piece.type == Piece.Type.PAWN) {
+					pawnKey ^= Zobrist.piece(piece, x + 8*y);
+				}
+			}
+		}
+		if (pawnKey != game.pawnKey) {
+			throw new IllegalStateException("Incremental pawn key differs from full pawn key in position\n" + game);
+		}
+
+		if (game.accumulator != null) {
+			NeuralNetwork.Accumulator full = new NeuralNetwork.Accumulator(game.accumulator.network);
+			full.refresh(game.board);
+			if (!full.matches(game.accumulator)) {
+				throw new IllegalStateException("Incremental accumulator differs from full accumulator in position\n" + game);
+			}
+		}
+
+		long pawns = PawnTable.evaluate(game);
+		int incremental = taper(game.midgame + PawnTable.midgame(pawns), game.endgame + PawnTable.endgame(pawns),
+				game.phase, game.getCurrentColor());
+		int full = recompute(game);
+		if (incremental != full) {
+			throw new IllegalStateException("Incremental evaluation " + incremental +
+					" differs from full evaluation " + full + " in position\n" + game);
+		}
+	}
+}
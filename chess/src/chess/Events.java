@@ -0,0 +1,106 @@
+package chess;
+
+/**
+ * Flight Recorder events, without depending on Flight Recorder. The
+ * jdk.jfr API only exists in Java 8 runtimes from 8u262 on, so the engine
+ * never touches the event classes directly. It calls these methods, which
+ * do nothing when the API is missing. Whether it is there is checked once,
+ * when this class is loaded, and only then is {@link JfrEvents}, the only
+ * class that uses the event classes, loaded by name.
+ *
+ * An event is begun with one of the begin methods, and committed with the
+ * matching commit method if {@link #shouldCommit} says so, so the values of
+ * the event are only computed when Flight Recorder is recording it.
+ *
+ * @author	Sindre Stephansen
+ * @see		JfrEvents
+ */
+final class Events {
+	/**
+	 * Creates and commits the events. The events are handed around as
+	 * objects, so this interface doesn't depend on the event classes.
+	 */
+	interface Recorder {
+		Object beginMoveGeneration();
+		Object beginStorage();
+		Object beginSearchIteration();
+		boolean shouldCommit(Object event);
+		void commitMoveGeneration(Object event, String pieceType, String origin, int moveCount);
+		void commitStorage(Object event, String operation, String file, long bytes);
+		void commitSearchIteration(Object event, int depth, long nodes, int score, String pv, boolean completed);
+	}
+
+	// The recorder, or null if Flight Recorder isn't available
+	private static final Recorder RECORDER = load();
+
+	private Events() {}
+
+	/*
+	 * Utility methods
+	 */
+
+	private static Recorder load() {
+		try {
+			Class.forName("jdk.jfr.Event");
+			return (Recorder) Class.forName("chess.JfrEvents").getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException | LinkageError e) {
+			return null;
+		}
+	}
+
+	/*
+	 * Public methods
+	 */
+
+	/**
+	 * Begins an event for a call to {@link Game#validMoves(Pos)}.
+	 *
+	 * @return	The event, or null if events aren't available
+	 */
+	static Object beginMoveGeneration() {
+		return RECORDER == null ? null : RECORDER.beginMoveGeneration();
+	}
+
+	/**
+	 * Begins an event for saving or loading a game.
+	 *
+	 * @return	The event, or null if events aren't available
+	 */
+	static Object beginStorage() {
+		return RECORDER == null ? null : RECORDER.beginStorage();
+	}
+
+	/**
+	 * Begins an event for one iteration of a search.
+	 *
+	 * @return	The event, or null if events aren't available
+	 */
+	static Object beginSearchIteration() {
+		return RECORDER == null ? null : RECORDER.beginSearchIteration();
+	}
+
+	/**
+	 * Determines whether an event is being recorded, and so should be
+	 * committed.
+	 *
+	 * @param event	The event returned by a begin method
+	 * @return		Whether the event should be committed
+	 */
+	static boolean shouldCommit(Object event) {
+		return event != null && RECORDER.shouldCommit(event);
+	}
+
+	// The commit methods must only be called for events that should be committed
+
+	static void commitMoveGeneration(Object event, String pieceType, String origin, int moveCount) {
+		RECORDER.commitMoveGeneration(event, pieceType, origin, moveCount);
+	}
+
+	static void commitStorage(Object event, String operation, String file, long bytes) {
+		RECORDER.commitStorage(event, operation, file, bytes);
+	}
+
+	static void commitSearchIteration(Object event, int depth, long nodes, int score, String pv, boolean completed) {
+		RECORDER.commitSearchIteration(event, depth, nodes, score, pv, completed);
+	}
+}
@@ -0,0 +1,151 @@
+package chess;
+
+/**
+ * Conversion between games and Forsyth-Edwards Notation (FEN), the
+ * standard text format for chess positions, for example
+ * 'rnbqkbnr/pppppppp/8/8/4P3/8/PPPP1PPP/RNBQKBNR b - - 0 1'.
+ * 
+ * The game doesn't support castling or en passant, so those fields are
+ * written as '-', and ignored when reading.
+ * 
+ * @author	Sindre Stephansen
+ * @see		Game
+ * @see		<a href="https://en.wikipedia.org/wiki/Forsyth%E2%80%93Edwards_Notation">Forsyth-Edwards Notation</a>
+ */
+public final class Fen {
+	/**
+	 * The starting position.
+	 */
+	public static final String START = "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w - - 0 1";
+	
+	// The letters of the pieces, in the order of Game.WHITE and Game.BLACK
+	private static final String LETTERS = "PRNBQK";
+	
+	private Fen() {}
+	
+	/**
+	 * Creates a game in the position given by a FEN string. Only the
+	 * board and the side to move are required, the other fields are optional.
+	 * 
+	 * @param fen	The position in FEN
+	 * @return		A game in the given position
+	 * @throws		IllegalArgumentException	If the string isn't valid FEN
+	 */
+	public static Game parse(String fen) {
+		Game game = new Game();
+		load(game, fen);
+		return game;
+	}
+	
+	/**
+	 * Sets up the position given by a FEN string in an existing game.
+	 * The history of the game is cleared.
+	 * 
+	 * @param game	The game to set up
+	 * @param fen	The position in FEN
+	 * @throws		IllegalArgumentException	If the string isn't valid FEN
+	 */
+	public static void load(Game game, String fen) {
+		String[] fields = fen.trim().split("\\s+");
+		if (fields.length < 2) {
+			throw new IllegalArgumentException("Invalid FEN: " + fen);
+		}
+		
+		Piece[][] board = new Piece[8][8];
+		String[] ranks = fields[0].split("/");
+		if (ranks.length != 8) {
+			throw new IllegalArgumentException("Invalid FEN: " + fen);
+		}
+		
+		for (int i = 0; i < 8; i++) {
+			int y = 7 - i;
+			int x = 0;
+			for (char c : ranks[i].toCharArray()) {
+				if (c >= '1' && c <= '8') {
+					x += c - '0';
+				} else {
+					int index = LETTERS.indexOf(Character.toUpperCase(c));
+					if (index < 0 || x > 7) {
+						throw new IllegalArgumentException("Invalid FEN: " + fen);
+					}
+					board[x][y] = Character.isUpperCase(c) ? Game.WHITE[index] : Game.BLACK[index];
+					x++;
+				}
+			}
+			if (x != 8) {
+				throw new IllegalArgumentException("Invalid FEN: " + fen);
+			}
+		}
+		
+		boolean black;
+		if (fields[1].equals("w")) {
+			black = false;
+		} else if (fields[1].equals("b")) {
+			black = true;
+		} else {
+			throw new IllegalArgumentException("Invalid FEN: " + fen);
+		}
+		
+		int halfmoveClock = 0;
+		int fullmove = 1;
+		try {
+			if (fields.length > 4) {
+				halfmoveClock = Integer.parseInt(fields[4]);
+			}
+			if (fields.length > 5) {
+				fullmove = Math.max(Integer.parseInt(fields[5]), 1);
+			}
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid FEN: " + fen);
+		}
+		
+		for (int x = 0; x < 8; x++) {
+			System.arraycopy(board[x], 0, game.board[x], 0, 8);
+		}
+		game.turn = 2 * (fullmove - 1) + (black ? 1 : 0);
+		game.captureStack.clear();
+		game.undoStack.clear();
+		game.redoStack.clear();
+		game.promotionStack.clear();
+		game.refresh();
+		game.halfmoveClock = halfmoveClock;
+	}
+	
+	/**
+	 * Returns the position of a game in FEN.
+	 * 
+	 * @param game	The game
+	 * @return		The position in FEN
+	 */
+	public static String toString(Game game) {
+		StringBuilder builder = new StringBuilder();
+		
+		for (int y = 7; y >= 0; y--) {
+			int empty = 0;
+			for (int x = 0; x < 8; x++) {
+				Piece piece = game.board[x][y];
+				if (piece == null) {
+					empty++;
+				} else {
+					if (empty > 0) {
+						builder.append(empty);
+						empty = 0;
+					}
+					builder.append(piece.toString());
+				}
+			}
+			if (empty > 0) {
+				builder.append(empty);
+			}
+			if (y > 0) {
+				builder.append('/');
+			}
+		}
+		
+		builder.append(game.getTurn() % 2 == 0 ? " w" : " b");
+		builder.append(" - - ").append(game.getHalfmoveClock());
+		builder.append(' ').append(game.getTurn() / 2 + 1);
+		
+		return builder.toString();
+	}
+}
@@ -0,0 +1,85 @@
+package chess;
+
+/**
+ * Interfaces for publishing a stream of items to subscribers, with
+ * back-pressure. They have the same names, methods and rules as the
+ * interfaces of java.util.concurrent.Flow, which is only in Java 9 and
+ * later, so code written against these can move to that class by
+ * changing the import.
+ *
+ * A subscriber is given a subscription when it subscribes, and receives
+ * no more items than it has asked for with {@link Subscription#request}.
+ *
+ * @author	Sindre Stephansen
+ * @see		Analysis
+ */
+public final class Flow {
+	private Flow() {}
+
+	/**
+	 * A producer of items, that subscribers can subscribe to.
+	 *
+	 * @param <T>	The type of the items
+	 */
+	public interface Publisher<T> {
+		/**
+		 * Adds a subscriber. Its onSubscribe method is called first, with
+		 * the subscription it requests items through.
+		 *
+		 * @param subscriber	The subscriber
+		 */
+		public void subscribe(Subscriber<? super T> subscriber);
+	}
+
+	/**
+	 * A receiver of items. The methods of one subscriber are never called
+	 * at the same time.
+	 *
+	 * @param <T>	The type of the items
+	 */
+	public interface Subscriber<T> {
+		/**
+		 * Called before any other method, with the subscription to
+		 * request items through.
+		 *
+		 * @param subscription	The new subscription
+		 */
+		public void onSubscribe(Subscription subscription);
+
+		/**
+		 * Called with the next item.
+		 *
+		 * @param item	The item
+		 */
+		public void onNext(T item);
+
+		/**
+		 * Called when the publisher fails. No more methods are called.
+		 *
+		 * @param throwable	The cause of the failure
+		 */
+		public void onError(Throwable throwable);
+
+		/**
+		 * Called when there will be no more items. No more methods are called.
+		 */
+		public void onComplete();
+	}
+
+	/**
+	 * The link between a publisher and one subscriber.
+	 */
+	public interface Subscription {
+		/**
+		 * Asks for up to n more items.
+		 *
+		 * @param n	The number of items, which must be positive
+		 */
+		public void request(long n);
+
+		/**
+		 * Stops the subscriber from receiving more items.
+		 */
+		public void cancel();
+	}
+}
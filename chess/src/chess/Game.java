@@ -2,6 +2,7 @@ package chess;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Stack;
 
 import chess.Piece.Color;
@@ -17,6 +18,24 @@ import chess.Piece.Type;
  * @see Move
  */
 public class Game implements Cloneable {
+	/**
+	 * The reasons a game can be drawn by rule.
+	 * 
+	 * @see	Game#drawReason
+	 */
+	public enum DrawReason {
+		NONE, REPETITION, FIFTY_MOVES
+	}
+	
+	/**
+	 * Whether the player to move can move, and if not, why.
+	 * 
+	 * @see	Game#status
+	 */
+	public enum Status {
+		ONGOING, CHECKMATE, STALEMATE
+	}
+	
 	/*
 	 * Inner classes
 	 */
@@ -60,13 +79,16 @@ public class Game implements Cloneable {
 				}
 				
 				Move move = new Move(tmp, turn);
-				Game tmpgame = (Game) Game.this.clone();
-				tmpgame.move(move);
-				if (!tmpgame.isInCheck(piece.color)) {
-					add(move);
+				Game tmpgame = GamePool.acquire(Game.this);
+				try {
+					tmpgame.move(move);
+					if (!tmpgame.isInCheck(piece.color)) {
+						add(move);
+					}
+				} finally {
+					GamePool.release(tmpgame);
 				}
-			} catch (IllegalArgumentException e) {
-			} catch (CloneNotSupportedException e) {}
+			} catch (IllegalArgumentException e) {}
 		}
 		
 		Move[] toArray() {
@@ -95,6 +117,17 @@ public class Game implements Cloneable {
 		new Piece(Color.BLACK, Type.QUEEN),
 		new Piece(Color.BLACK, Type.KING)
 	};
+	
+	// The moves of knights and kings, and the directions of the sliding
+	// pieces, shared with MoveGenerator and StaticExchange
+	static final int[][] KNIGHT_OFFSETS = {
+		{1, 2}, {2, 1}, {2, -1}, {1, -2}, {-1, -2}, {-2, -1}, {-2, 1}, {-1, 2}
+	};
+	static final int[][] KING_OFFSETS = {
+		{1, 0}, {1, 1}, {0, 1}, {-1, 1}, {-1, 0}, {-1, -1}, {0, -1}, {1, -1}
+	};
+	static final int[][] DIAGONALS = {{1, 1}, {1, -1}, {-1, 1}, {-1, -1}};
+	static final int[][] LINES = {{1, 0}, {-1, 0}, {0, 1}, {0, -1}};
 
 	/*
 	 * Attributes
@@ -110,6 +143,42 @@ public class Game implements Cloneable {
 	Stack<PiecePos> captureStack = new Stack<PiecePos>();
 	Stack<Move> undoStack = new Stack<Move>();
 	Stack<Move> redoStack = new Stack<Move>();
+	Stack<Piece> promotionStack = new Stack<Piece>();
+	
+	// The Zobrist key of the current position, see Zobrist
+	long key;
+	
+	// The part of the key that comes from the pawns, see PawnTable
+	long pawnKey;
+	
+	// The material and piece-square sums of the position from white's
+	// view, and the game phase, see Evaluation
+	int midgame;
+	int endgame;
+	int phase;
+	
+	// The hidden layer of the neural network, or null if the game isn't
+	// evaluated by a network, see setNetwork
+	NeuralNetwork.Accumulator accumulator;
+	
+	// The square of the king of each color, indexed by the color's
+	// ordinal, or -1 if there is none
+	int[] kingSquares = {-1, -1};
+	
+	// The number of pieces of each color attacking each square, indexed by
+	// the color's ordinal times 64 plus the square. They are recomputed
+	// the first time they are needed after the board has changed.
+	byte[] attacks = new byte[128];
+	boolean attacksValid = false;
+	
+	// The number of moves since the last capture or pawn move
+	int halfmoveClock = 0;
+	
+	// The key and the halfmove clock before each move that has been
+	// played, so repetitions can be found and undo can restore the clock.
+	long[] keyHistory = new long[256];
+	int[] clockHistory = new int[256];
+	int historySize = 0;
 	
 	/*
 	 * Constructors
@@ -161,6 +230,8 @@ public class Game implements Cloneable {
 		// Kings
 		board[4][0] = WHITE[5];
 		board[4][7] = BLACK[5];
+		
+		refresh();
 	}
 	
 	public static Game load(String filename) throws IOException {
@@ -179,13 +250,7 @@ public class Game implements Cloneable {
 	
 	protected Object clone() throws CloneNotSupportedException {
 		Game clone = new Game();
-		
-		clone.turn = turn;
-		for (int x = 0; x < 8; x++) {
-			for (int y = 0; y < 8; y++) {
-				clone.board[x][y] = board[x][y];
-			}
-		}
+		clone.copyFrom(this);
 		
 		return clone;
 	}
@@ -232,7 +297,44 @@ public class Game implements Cloneable {
 	 */
 	
 	private void setPiece(Pos pos, Piece piece) {
+		int square = pos.x + 8*pos.y;
+		Piece old = board[pos.x][pos.y];
+		
+		if (old != null) {
+			int i = Zobrist.index(old) * 64 + square;
+			key ^= Zobrist.piece(old, square);
+			if (old.type == Type.PAWN) {
+				pawnKey ^= Zobrist.piece(old, square);
+			}
+			midgame -= Evaluation.MIDGAME[i];
+			endgame -= Evaluation.ENDGAME[i];
+			phase -= Evaluation.PHASE[old.type.ordinal()];
+			if (accumulator != null) {
+				accumulator.remove(old, square);
+			}
+			if (old.type == Type.KING && kingSquares[old.color.ordinal()] == square) {
+				kingSquares[old.color.ordinal()] = -1;
+			}
+		}
+		if (piece != null) {
+			int i = Zobrist.index(piece) * 64 + square;
+			key ^= Zobrist.piece(piece, square);
+			if (piece.type == Type.PAWN) {
+				pawnKey ^= Zobrist.piece(piece, square);
+			}
+			midgame += Evaluation.MIDGAME[i];
+			endgame += Evaluation.ENDGAME[i];
+			phase += Evaluation.PHASE[piece.type.ordinal()];
+			if (accumulator != null) {
+				accumulator.add(piece, square);
+			}
+			if (piece.type == Type.KING) {
+				kingSquares[piece.color.ordinal()] = square;
+			}
+		}
+		
 		board[pos.x][pos.y] = piece;
+		attacksValid = false;
 	}
 	
 	private void setPiece(PiecePos piecePos) {
@@ -241,10 +343,135 @@ public class Game implements Cloneable {
 		}
 	}
 	
+	/**
+	 * Recomputes the key and the evaluation sums of the position from
+	 * scratch, and forgets the history of earlier positions. This must be called after the board
+	 * or the turn has been changed directly, for example when loading a game.
+	 */
+	void refresh() {
+		key = turn % 2 == 0 ? 0 : Zobrist.BLACK_TO_MOVE;
+		pawnKey = 0;
+		midgame = 0;
+		endgame = 0;
+		phase = 0;
+		kingSquares[0] = -1;
+		kingSquares[1] = -1;
+		attacksValid = false;
+		for (int x = 0; x < 8; x++) {
+			for (int y = 0; y < 8; y++) {
+				Piece piece = board[x][y];
+				if (piece != null) {
+					int i = Zobrist.index(piece) * 64 + x + 8*y;
+					key ^= Zobrist.piece(piece, x + 8*y);
+					if (piece.type == Type.PAWN) {
+						pawnKey ^= Zobrist.piece(piece, x + 8*y);
+					}
+					midgame += Evaluation.MIDGAME[i];
+					endgame += Evaluation.ENDGAME[i];
+					phase += Evaluation.PHASE[piece.type.ordinal()];
+					if (piece.type == Type.KING) {
+						kingSquares[piece.color.ordinal()] = x + 8*y;
+					}
+				}
+			}
+		}
+		
+		if (accumulator != null) {
+			accumulator.refresh(board);
+		}
+		
+		halfmoveClock = 0;
+		historySize = 0;
+	}
+	
+	/**
+	 * Returns how many times the current position has occurred before,
+	 * with the same player to move. Only positions since the last capture
+	 * or pawn move are looked at, since earlier positions can't repeat.
+	 * 
+	 * @return	The number of earlier occurrences of the current position
+	 */
+	int repetitions() {
+		int count = 0;
+		int end = Math.max(historySize - halfmoveClock, 0);
+		
+		for (int i = historySize - 2; i >= end; i -= 2) {
+			if (keyHistory[i] == key) {
+				count++;
+			}
+		}
+		
+		return count;
+	}
+	
+	/**
+	 * Determines whether the game is drawn by the fifty-move rule. A move
+	 * that gives checkmate wins even when it reaches the fifty moves, so
+	 * a player that is mated isn't drawn.
+	 * 
+	 * @return	Whether the game is drawn by the fifty-move rule
+	 */
+	boolean isFiftyMoveDraw() {
+		return halfmoveClock >= 100 && (!isInCheck(getCurrentColor()) || hasAnyLegalMove());
+	}
+	
 	/*
 	 * Public methods
 	 */
 	
+	/**
+	 * Copies the position of another game into this one, without
+	 * allocating anything. The board and the turn are copied, while the
+	 * undo and redo history of this game is cleared. This is meant for
+	 * reusing scratch games, see {@link GamePool}.
+	 * 
+	 * @param other	The game to copy the position from
+	 * @see			GamePool
+	 */
+	public void copyFrom(Game other) {
+		Metrics.count(Metrics.CLONES);
+		
+		for (int x = 0; x < 8; x++) {
+			System.arraycopy(other.board[x], 0, board[x], 0, 8);
+		}
+		
+		turn = other.turn;
+		key = other.key;
+		pawnKey = other.pawnKey;
+		midgame = other.midgame;
+		endgame = other.endgame;
+		phase = other.phase;
+		kingSquares[0] = other.kingSquares[0];
+		kingSquares[1] = other.kingSquares[1];
+		attacksValid = other.attacksValid;
+		if (attacksValid) {
+			System.arraycopy(other.attacks, 0, attacks, 0, attacks.length);
+		}
+		halfmoveClock = other.halfmoveClock;
+		
+		// Only the positions since the last irreversible move
+		// matter for repetitions, so only those are copied.
+		int n = Math.min(other.halfmoveClock, other.historySize);
+		ensureHistory(n);
+		System.arraycopy(other.keyHistory, other.historySize - n, keyHistory, 0, n);
+		System.arraycopy(other.clockHistory, other.historySize - n, clockHistory, 0, n);
+		historySize = n;
+		
+		captureStack.clear();
+		undoStack.clear();
+		redoStack.clear();
+		promotionStack.clear();
+		
+		// Keep this game's own network, if it has one
+		if (accumulator != null) {
+			if (other.accumulator != null && other.accumulator.network == accumulator.network) {
+				accumulator.copyFrom(other.accumulator);
+			} else {
+				accumulator.refresh(board);
+			}
+		}
+	}
+	
 	/**
 	 * Returns the piece at the given coordinates.
 	 * 
@@ -284,6 +511,109 @@ public class Game implements Cloneable {
 		return turn;
 	}
 	
+	/**
+	 * Returns the Zobrist key of the current position. Positions with the
+	 * same pieces on the same squares and the same player to move have the
+	 * same key, and different positions almost always have different keys.
+	 * The key is kept up to date as moves are made, so this is cheap.
+	 * 
+	 * @return	The key of the current position
+	 */
+	public long getKey() {
+		return key;
+	}
+	
+	/**
+	 * Makes the game keep the hidden layer of a neural network up to date
+	 * as moves are made, so the position can be evaluated by the network,
+	 * see {@link Evaluation#evaluate}. The network can be shared with other
+	 * games, but the hidden layer belongs to this game.
+	 * 
+	 * @param network	The network to evaluate with, or null to use the
+	 * 					piece-square tables
+	 * @see				NeuralNetwork
+	 */
+	public void setNetwork(NeuralNetwork network) {
+		if (network == null) {
+			accumulator = null;
+		} else {
+			accumulator = new NeuralNetwork.Accumulator(network);
+			accumulator.refresh(board);
+		}
+	}
+	
+	/**
+	 * Returns the neural network the game is evaluated with.
+	 * 
+	 * @return	The network, or null if the game uses the piece-square tables
+	 */
+	public NeuralNetwork getNetwork() {
+		return accumulator == null ? null : accumulator.network;
+	}
+	
+	/**
+	 * Returns the Zobrist key of the pawns of the current position. It
+	 * only changes when a pawn moves, is captured or is promoted, so it
+	 * can be used to cache anything that depends on the pawns alone.
+	 * 
+	 * @return	The key of the pawns of the current position
+	 * @see		#getKey
+	 */
+	public long getPawnKey() {
+		return pawnKey;
+	}
+	
+	/**
+	 * Returns the number of moves since the last capture or pawn move.
+	 * 
+	 * @return	The halfmove clock
+	 * @see		#drawReason
+	 */
+	public int getHalfmoveClock() {
+		return halfmoveClock;
+	}
+	
+	/**
+	 * Returns why the game is drawn by rule, or {@link DrawReason#NONE}
+	 * if it isn't. The game is drawn when the same position has occurred
+	 * three times with the same player to move, or when 50 moves by each
+	 * player have been made without a capture or a pawn move, unless the
+	 * last of them gave checkmate. This is cheap enough to call in every
+	 * node of a search.
+	 * 
+	 * @return	The reason the game is drawn, or NONE
+	 * @see		#isDraw
+	 */
+	public DrawReason drawReason() {
+		if (isFiftyMoveDraw()) {
+			return DrawReason.FIFTY_MOVES;
+		} else if (repetitions() >= 2) {
+			return DrawReason.REPETITION;
+		}
+		return DrawReason.NONE;
+	}
+	
+	/**
+	 * Determines whether the game is drawn by threefold repetition
+	 * or by the fifty-move rule.
+	 * 
+	 * @return	Whether the game is drawn
+	 * @see		#drawReason
+	 */
+	public boolean isDraw() {
+		return drawReason() != DrawReason.NONE;
+	}
+	
+	/**
+	 * Returns the color of the player whose turn it is.
+	 * White moves on even turns, black on odd turns.
+	 * 
+	 * @return	The color of the player to move
+	 */
+	public Color getCurrentColor() {
+		return turn % 2 == 0 ? Color.WHITE : Color.BLACK;
+	}
+	
 	/**
 	 * Returns an array of all the pieces of a specific color.
 	 * The search results are given as PiecePos elements, which
@@ -383,9 +713,34 @@ public class Game implements Cloneable {
 			throw new IllegalArgumentException("The move isn't valid this turn");
 		}
 		
+		// A new move replaces the moves that could have been redone
+		redoStack.clear();
+		play(move);
+	}
+	
+	private void ensureHistory(int size) {
+		if (size > keyHistory.length) {
+			int capacity = Math.max(size, keyHistory.length * 2);
+			keyHistory = Arrays.copyOf(keyHistory, capacity);
+			clockHistory = Arrays.copyOf(clockHistory, capacity);
+		}
+	}
+	
+	// Executes a move without touching the redo stack
+	private void play(Move move) {
+		ensureHistory(historySize + 1);
+		keyHistory[historySize] = key;
+		clockHistory[historySize] = halfmoveClock;
+		historySize++;
+		
+		boolean irreversible = false;
 		for (Pos[] tmp : move) {
 			Piece piece = getPiece(tmp[0]);
 			Piece other = getPiece(tmp[1]);
+			
+			if (other != null || piece.type == Type.PAWN) {
+				irreversible = true;
+			}
 
 			if (other != null) {
 				captureStack.push(new PiecePos(other, tmp[1]));
@@ -397,47 +752,276 @@ public class Game implements Cloneable {
 			setPiece(tmp[0], null);
 		}
 		
-		// Pawn promotion
+		// Pawn promotion. The pawn is remembered so undo can put it back.
 		Pos target = move.target();
 		Piece piece = getPiece(target);
+		Piece promoted = null;
 		if (piece != null && piece.type == Type.PAWN) {
 			if (piece.color == Color.WHITE && target.y == 7) {
 				setPiece(target, WHITE[4]);
+				promoted = piece;
 			} else if (piece.color == Color.BLACK && target.y == 0) {
 				setPiece(target, BLACK[4]);
+				promoted = piece;
 			}
 		}
 		
 		this.turn++;
+		this.key ^= Zobrist.BLACK_TO_MOVE;
+		this.halfmoveClock = irreversible ? 0 : halfmoveClock + 1;
 		this.undoStack.push(move);
+		this.promotionStack.push(promoted);
 	}
 	
+	/**
+	 * Takes back the last move, if there is one. The move can be
+	 * played again with {@link #redo}, until a new move is made.
+	 * 
+	 * @see	#redo
+	 * @see	#move
+	 */
 	public void undo() {
 		if (undoStack.size() > 0) {
 			Move m = undoStack.pop();
+			Piece promoted = promotionStack.pop();
 			Stack<Pos[]> moveStack = new Stack<Pos[]>();
 
 			for (Pos[] tmp : m) {
 				moveStack.push(tmp);
 			}
 			
-			for (int i = 0; i < moveStack.size(); i++) {
+			while (!moveStack.isEmpty()) {
 				Pos[] tmp = moveStack.pop();
 				Piece piece = getPiece(tmp[1]);
 				setPiece(tmp[0], piece);
 				setPiece(tmp[1], null);
+				setPiece(captureStack.pop());
+			}
+			
+			if (promoted != null) {
+				setPiece(m.origin(), promoted);
 			}
 			
-			setPiece(captureStack.pop());
 			redoStack.push(m);
 			this.turn--;
+			this.key ^= Zobrist.BLACK_TO_MOVE;
+			this.historySize--;
+			this.halfmoveClock = clockHistory[historySize];
 		}
 	}
 	
+	/**
+	 * Plays the last move that was taken back by {@link #undo} again.
+	 * 
+	 * @see #undo
+	 */
 	public void redo() {
 		if (redoStack.size() > 0) {
-			move(redoStack.pop());
+			play(redoStack.pop());
+		}
+	}
+	
+	/**
+	 * Passes the turn to the other player without moving a piece. This
+	 * isn't a legal chess move, but is used by the search to find out
+	 * whether a position is so good that it would hold even if the player
+	 * could skip a move. Must be taken back with {@link #undoNullMove}
+	 * before any other move is taken back.
+	 */
+	void makeNullMove() {
+		ensureHistory(historySize + 1);
+		keyHistory[historySize] = key;
+		clockHistory[historySize] = halfmoveClock;
+		historySize++;
+		
+		// Repetitions across a null move don't count
+		halfmoveClock = 0;
+		key ^= Zobrist.BLACK_TO_MOVE;
+		turn++;
+	}
+	
+	/**
+	 * Takes back a move made by {@link #makeNullMove}.
+	 */
+	void undoNullMove() {
+		turn--;
+		key ^= Zobrist.BLACK_TO_MOVE;
+		historySize--;
+		halfmoveClock = clockHistory[historySize];
+	}
+	
+	/**
+	 * Determines whether the player of the given color has any pieces
+	 * other than pawns and the king.
+	 * 
+	 * @param color	The color to check
+	 * @return		Whether the player has a knight, bishop, rook or queen
+	 */
+	boolean hasPieces(Color color) {
+		for (int x = 0; x < 8; x++) {
+			for (int y = 0; y < 8; y++) {
+				Piece piece = board[x][y];
+				if (piece != null && piece.color == color &&
+						piece.type != Type.PAWN && piece.type != Type.KING) {
+					return true;
+				}
+			}
 		}
+		
+		return false;
+	}
+	
+	/**
+	 * Determines whether the player to move has at least one legal move.
+	 * This stops at the first legal move it finds, and tries the moves
+	 * most likely to be legal first: king moves, and when in check, the
+	 * captures of a checking piece. Nothing is allocated, so this is much
+	 * cheaper than checking whether {@link #validMoves} is empty.
+	 * 
+	 * @return	Whether the player to move has a legal move
+	 * @throws	IllegalStateException	If the player to move has no king
+	 * @see		#status
+	 */
+	public boolean hasAnyLegalMove() {
+		Color color = getCurrentColor();
+		Color opponent = color == Color.WHITE ? Color.BLACK : Color.WHITE;
+		int king = kingSquares[color.ordinal()];
+		if (king < 0) {
+			throw new IllegalStateException("There are no kings!");
+		}
+		
+		int kx = king % 8;
+		int ky = king / 8;
+		for (int[] d : KING_OFFSETS) {
+			int x = kx + d[0];
+			int y = ky + d[1];
+			if (x >= 0 && x < 8 && y >= 0 && y < 8 && isPseudoLegal(king, x + 8*y) && isKingSafeAfter(king, x + 8*y)) {
+				return true;
+			}
+		}
+		
+		// Capturing a checking piece is the most common way out of check
+		int checker = StaticExchange.leastValuableAttacker(this, 0, kx, ky, opponent);
+		if (checker >= 0) {
+			for (int from = 0; from < 64; from++) {
+				Piece piece = board[from % 8][from / 8];
+				if (piece != null && piece.color == color && from != king && isLegal(from, checker)) {
+					return true;
+				}
+			}
+		}
+		
+		for (int from = 0; from < 64; from++) {
+			Piece piece = board[from % 8][from / 8];
+			if (piece != null && piece.color == color && from != king && hasLegalMove(from, piece)) {
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	// Determines whether the piece on the given square, which isn't a king, has a legal move
+	private boolean hasLegalMove(int from, Piece piece) {
+		int x = from % 8;
+		int y = from / 8;
+		
+		switch (piece.type) {
+		case PAWN:
+			int forward = piece.color == Color.WHITE ? 1 : -1;
+			for (int dx = -1; dx <= 1; dx++) {
+				if (isLegalTarget(from, x + dx, y + forward)) {
+					return true;
+				}
+			}
+			return isLegalTarget(from, x, y + 2*forward);
+		case KNIGHT:
+			for (int[] d : KNIGHT_OFFSETS) {
+				if (isLegalTarget(from, x + d[0], y + d[1])) {
+					return true;
+				}
+			}
+			return false;
+		case ROOK:
+			return hasLegalSlide(from, LINES);
+		case BISHOP:
+			return hasLegalSlide(from, DIAGONALS);
+		case QUEEN:
+			return hasLegalSlide(from, DIAGONALS) || hasLegalSlide(from, LINES);
+		default:
+			return false;
+		}
+	}
+	
+	private boolean isLegalTarget(int from, int x, int y) {
+		return x >= 0 && x < 8 && y >= 0 && y < 8 && isLegal(from, x + 8*y);
+	}
+	
+	// Tries the squares along the given directions, up to the first piece in the way
+	private boolean hasLegalSlide(int from, int[][] directions) {
+		Color color = board[from % 8][from / 8].color;
+		for (int[] d : directions) {
+			int x = from % 8 + d[0];
+			int y = from / 8 + d[1];
+			while (x >= 0 && x < 8 && y >= 0 && y < 8) {
+				Piece other = board[x][y];
+				if ((other == null || other.color != color) && isKingSafeAfter(from, x + 8*y)) {
+					return true;
+				}
+				if (other != null) {
+					break;
+				}
+				x += d[0];
+				y += d[1];
+			}
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Returns whether the player to move can move, and if not, whether
+	 * the game ended in checkmate or stalemate. Draws by rule are given
+	 * by {@link #drawReason}.
+	 * 
+	 * @return	The status of the game
+	 * @throws	IllegalStateException	If the player to move has no king
+	 * @see		#hasAnyLegalMove
+	 */
+	public Status status() {
+		if (hasAnyLegalMove()) {
+			return Status.ONGOING;
+		}
+		
+		return isInCheck(getCurrentColor()) ? Status.CHECKMATE : Status.STALEMATE;
+	}
+	
+	/**
+	 * Calculates all possible legal moves for the player whose turn it is.
+	 * The resulting elements can be passed to {@link #move} to execute the move.
+	 * If the array is empty the game is over, with checkmate if the player
+	 * is in check, and stalemate if not.
+	 * 
+	 * @return	All legal moves for the player whose turn it is
+	 * @see		#validMoves(Pos)
+	 * @see		#move
+	 */
+	public Move[] validMoves() {
+		Color color = getCurrentColor();
+		ArrayList<Move> list = new ArrayList<Move>();
+		
+		for (int y = 0; y < 8; y++) {
+			for (int x = 0; x < 8; x++) {
+				Piece piece = board[x][y];
+				if (piece != null && piece.color == color) {
+					for (Move move : validMoves(new Pos(x, y))) {
+						list.add(move);
+					}
+				}
+			}
+		}
+		
+		return list.toArray(new Move[list.size()]);
 	}
 	
 	/**
@@ -467,6 +1051,8 @@ public class Game implements Cloneable {
 			throw new IllegalArgumentException("It's whites turn to move");
 		}
 		
+		long start = Metrics.start();
+		Object event = Events.beginMoveGeneration();
 		ValidMoves moves = new ValidMoves();
 		
 		switch (piece.type){
@@ -755,6 +1341,12 @@ public class Game implements Cloneable {
 			break;
 		}
 
+		Metrics.VALID_MOVES.stop(start);
+		
+		if (Events.shouldCommit(event)) {
+			Events.commitMoveGeneration(event, piece.type.name(), origin.toString(), moves.moves.size());
+		}
+		
 		return moves.toArray();
 	}
 	
@@ -765,155 +1357,356 @@ public class Game implements Cloneable {
 	 * @return		Whether the king of the given color is in check
 	 */
 	public boolean isInCheck(Color color) {
-		PiecePos[] kings = byTypeAndColor(Type.KING, color);
-		if (kings.length == 0) {
+		long start = Metrics.start();
+		boolean check = kingAttacked(color);
+		Metrics.IS_IN_CHECK.stop(start);
+		
+		return check;
+	}
+	
+	private boolean kingAttacked(Color color) {
+		int square = kingSquares[color.ordinal()];
+		if (square < 0) {
 			throw new IllegalStateException("There are no kings!");
 		}
-		Pos pos = kings[0].pos;
-		int mod = 1;
-		if (color == Color.BLACK) {
-			mod = -1;
-		}
 		
-		// Pawn
-		for (int modx : new int[]{-1, 1}) {
-			try {
-				Piece piece = getPiece(pos.x + modx, pos.y + mod);
-				if (piece != null && piece.color != color && piece.type == Type.PAWN) {
-					return true;
-				}
-			} catch (IllegalArgumentException e) {}
+		Color opponent = color == Color.WHITE ? Color.BLACK : Color.WHITE;
+		if (attacksValid) {
+			return attacks[opponent.ordinal()*64 + square] > 0;
 		}
-		
-		// Knight
-		for (int x : new int[]{pos.x - 2, pos.x + 2}) {
-			for (int y : new int[]{pos.y - 1, pos.y + 1}) {
-				try {
-					Piece piece = getPiece(x, y);
-					if (piece != null && piece.color != color && piece.type == Type.KNIGHT) {
-						return true;
-					}
-				} catch (IllegalArgumentException e) {}
-			}
+		return isSquareAttacked(square, opponent);
+	}
+	
+	/**
+	 * Returns the number of pieces of the given color that attack a
+	 * square. A piece attacks the squares it could capture on, whether or
+	 * not there is a piece there, so pawns only attack diagonally forward.
+	 * Pieces behind other pieces on the same line aren't counted, and
+	 * neither is whether the attacking piece is pinned.
+	 * 
+	 * The attack counts of both colors are computed for the whole board
+	 * the first time they are needed in a position, and are then used
+	 * until a move is made or taken back, so looking at many squares of
+	 * the same position is cheap.
+	 * 
+	 * @param square	The square, numbered from 0 to 63 like in {@link PackedMove}
+	 * @param color		The color of the attacking pieces
+	 * @return			The number of attackers
+	 * @throws			IllegalArgumentException	If the square is outside the board
+	 * @see				#isAttacked(int, Color)
+	 */
+	public int attackers(int square, Color color) {
+		if (square < 0 || square >= 64) {
+			throw new IllegalArgumentException("Invalid square: " + square);
 		}
-		for (int x : new int[]{pos.x - 1, pos.x + 1}) {
-			for (int y : new int[]{pos.y - 2, pos.y + 2}) {
-				try {
-					Piece piece = getPiece(x, y);
-					if (piece != null && piece.color != color && piece.type == Type.KNIGHT) {
-						return true;
-					}
-				} catch (IllegalArgumentException e) {}
-			}
+		if (!attacksValid) {
+			computeAttacks();
 		}
 		
-		// Rook and queen
-		for (int x = pos.x + 1; x < 8; x++) {
-			Piece piece = getPiece(x, pos.y);
-			if (piece != null) {
-				if (piece.color != color &&
-						(piece.type == Type.ROOK || piece.type == Type.QUEEN)) {
-					return true;
-				} else {
+		return attacks[color.ordinal()*64 + square];
+	}
+	
+	/**
+	 * Returns the number of pieces of the given color that attack a
+	 * position, see {@link #attackers(int, Color)}.
+	 * 
+	 * @param pos	The position on the board
+	 * @param color	The color of the attacking pieces
+	 * @return		The number of attackers
+	 */
+	public int attackers(Pos pos, Color color) {
+		return attackers(pos.x + 8*pos.y, color);
+	}
+	
+	/**
+	 * Determines whether any piece of the given color attacks a square,
+	 * see {@link #attackers(int, Color)}.
+	 * 
+	 * @param square	The square, numbered from 0 to 63 like in {@link PackedMove}
+	 * @param color		The color of the attacking pieces
+	 * @return			Whether the square is attacked
+	 * @throws			IllegalArgumentException	If the square is outside the board
+	 */
+	public boolean isAttacked(int square, Color color) {
+		return attackers(square, color) > 0;
+	}
+	
+	/**
+	 * Determines whether any piece of the given color attacks a position,
+	 * see {@link #attackers(int, Color)}.
+	 * 
+	 * @param pos	The position on the board
+	 * @param color	The color of the attacking pieces
+	 * @return		Whether the position is attacked
+	 */
+	public boolean isAttacked(Pos pos, Color color) {
+		return attackers(pos, color) > 0;
+	}
+	
+	// Counts the attackers of every square, for both colors
+	private void computeAttacks() {
+		Arrays.fill(attacks, (byte) 0);
+		
+		for (int x = 0; x < 8; x++) {
+			for (int y = 0; y < 8; y++) {
+				Piece piece = board[x][y];
+				if (piece == null) {
+					continue;
+				}
+				
+				int offset = piece.color.ordinal()*64;
+				switch (piece.type) {
+				case PAWN:
+					int forward = piece.color == Color.WHITE ? 1 : -1;
+					addAttack(offset, x - 1, y + forward);
+					addAttack(offset, x + 1, y + forward);
+					break;
+				case KNIGHT:
+					for (int[] d : KNIGHT_OFFSETS) {
+						addAttack(offset, x + d[0], y + d[1]);
+					}
+					break;
+				case KING:
+					for (int[] d : KING_OFFSETS) {
+						addAttack(offset, x + d[0], y + d[1]);
+					}
+					break;
+				case ROOK:
+					addSlidingAttacks(offset, x, y, LINES);
+					break;
+				case BISHOP:
+					addSlidingAttacks(offset, x, y, DIAGONALS);
+					break;
+				case QUEEN:
+					addSlidingAttacks(offset, x, y, LINES);
+					addSlidingAttacks(offset, x, y, DIAGONALS);
 					break;
 				}
 			}
 		}
-		for (int x = pos.x - 1; x >= 0; x--) {
-			Piece piece = getPiece(x, pos.y);
-			if (piece != null) {
-				if (piece.color != color &&
-						(piece.type == Type.ROOK || piece.type == Type.QUEEN)) {
-					return true;
-				} else {
+		
+		attacksValid = true;
+	}
+	
+	private void addAttack(int offset, int x, int y) {
+		if (x >= 0 && x < 8 && y >= 0 && y < 8) {
+			attacks[offset + x + 8*y]++;
+		}
+	}
+	
+	// Adds the squares along the given directions, up to and including the first piece in the way
+	private void addSlidingAttacks(int offset, int x, int y, int[][] directions) {
+		for (int[] d : directions) {
+			int tx = x + d[0];
+			int ty = y + d[1];
+			while (tx >= 0 && tx < 8 && ty >= 0 && ty < 8) {
+				attacks[offset + tx + 8*ty]++;
+				if (board[tx][ty] != null) {
 					break;
 				}
+				tx += d[0];
+				ty += d[1];
 			}
 		}
-		for (int y = pos.y + 1; y < 8; y++) {
-			Piece piece = getPiece(pos.x, y);
-			if (piece != null) {
-				if (piece.color != color &&
-						(piece.type == Type.ROOK || piece.type == Type.QUEEN)) {
-					return true;
-				} else {
-					break;
-				}
+	}
+	
+	private Piece pieceAt(int x, int y) {
+		if (x < 0 || x > 7 || y < 0 || y > 7) {
+			return null;
+		}
+		return board[x][y];
+	}
+	
+	/**
+	 * Determines whether any piece of the given color attacks a square,
+	 * by looking outwards from the square. Nothing is allocated.
+	 * 
+	 * @param square	The square, between 0 and 63
+	 * @param color		The color of the attacking pieces
+	 * @return			Whether the square is attacked
+	 */
+	boolean isSquareAttacked(int square, Color color) {
+		int x = square % 8;
+		int y = square / 8;
+		
+		// Pawns attack diagonally forward, so look diagonally backward
+		int back = color == Color.WHITE ? -1 : 1;
+		for (int dx = -1; dx <= 1; dx += 2) {
+			Piece piece = pieceAt(x + dx, y + back);
+			if (piece != null && piece.color == color && piece.type == Type.PAWN) {
+				return true;
 			}
 		}
-		for (int y = pos.y - 1; y >= 0; y--) {
-			Piece piece = getPiece(pos.x, y);
-			if (piece != null) {
-				if (piece.color != color &&
-						(piece.type == Type.ROOK || piece.type == Type.QUEEN)) {
-					return true;
-				} else {
-					break;
-				}
+		
+		for (int[] d : KNIGHT_OFFSETS) {
+			Piece piece = pieceAt(x + d[0], y + d[1]);
+			if (piece != null && piece.color == color && piece.type == Type.KNIGHT) {
+				return true;
 			}
 		}
 		
-		// Bishop and queen
-		for (int i = 1; pos.x + i < 8 && pos.y + i < 8; i++) {
-			Piece piece = getPiece(pos.x + i, pos.y + i);
-			if (piece != null) {
-				if (piece.color != color &&
-						(piece.type == Type.BISHOP || piece.type == Type.QUEEN)) {
-					return true;
-				} else {
-					break;
-				}
+		for (int[] d : KING_OFFSETS) {
+			Piece piece = pieceAt(x + d[0], y + d[1]);
+			if (piece != null && piece.color == color && piece.type == Type.KING) {
+				return true;
 			}
 		}
-		for (int i = 1; pos.x + i < 8 && pos.y - i >= 0; i++) {
-			Piece piece = getPiece(pos.x + i, pos.y - i);
-			if (piece != null) {
-				if (piece.color != color &&
-						(piece.type == Type.BISHOP || piece.type == Type.QUEEN)) {
-					return true;
-				} else {
+		
+		return isSlidingAttacked(x, y, color, DIAGONALS, Type.BISHOP) ||
+				isSlidingAttacked(x, y, color, LINES, Type.ROOK);
+	}
+	
+	// Looks for a piece of the given type or a queen along the given directions
+	private boolean isSlidingAttacked(int x, int y, Color color, int[][] directions, Type type) {
+		for (int[] d : directions) {
+			int tx = x + d[0];
+			int ty = y + d[1];
+			while (tx >= 0 && tx < 8 && ty >= 0 && ty < 8) {
+				Piece piece = board[tx][ty];
+				if (piece != null) {
+					if (piece.color == color && (piece.type == type || piece.type == Type.QUEEN)) {
+						return true;
+					}
 					break;
 				}
+				tx += d[0];
+				ty += d[1];
 			}
 		}
-		for (int i = 1; pos.x - i >= 0 && pos.y + i < 8; i++) {
-			Piece piece = getPiece(pos.x - i, pos.y + i);
-			if (piece != null) {
-				if (piece.color != color &&
-						(piece.type == Type.BISHOP || piece.type == Type.QUEEN)) {
-					return true;
-				} else {
-					break;
-				}
+		
+		return false;
+	}
+	
+	/**
+	 * Determines whether moving the piece on one square to another follows
+	 * the rules for that piece, with the same rules as {@link #validMoves},
+	 * but without looking at whether the move leaves the king in check.
+	 * 
+	 * @param from	The origin square, between 0 and 63
+	 * @param to	The target square, between 0 and 63
+	 * @return		Whether the move is pseudo-legal for the player to move
+	 */
+	boolean isPseudoLegal(int from, int to) {
+		Piece piece = board[from % 8][from / 8];
+		Piece other = board[to % 8][to / 8];
+		Color color = getCurrentColor();
+		if (piece == null || piece.color != color || (other != null && other.color == color) || from == to) {
+			return false;
+		}
+		
+		int fx = from % 8, fy = from / 8, tx = to % 8, ty = to / 8;
+		int dx = tx - fx, dy = ty - fy;
+		
+		switch (piece.type) {
+		case PAWN:
+			int forward = color == Color.WHITE ? 1 : -1;
+			if (dx == 0 && dy == forward) {
+				return other == null;
+			} else if (dx == 0 && dy == 2*forward) {
+				// Only the target square needs to be empty, like in validMoves
+				return other == null && (fy == 1 || fy == 6);
+			} else {
+				return Math.abs(dx) == 1 && dy == forward && other != null;
 			}
+		case KNIGHT:
+			return Math.abs(dx * dy) == 2;
+		case KING:
+			return Math.abs(dx) <= 1 && Math.abs(dy) <= 1;
+		case ROOK:
+			return (dx == 0 || dy == 0) && isPathClear(fx, fy, tx, ty);
+		case BISHOP:
+			return Math.abs(dx) == Math.abs(dy) && isPathClear(fx, fy, tx, ty);
+		case QUEEN:
+			return (dx == 0 || dy == 0 || Math.abs(dx) == Math.abs(dy)) && isPathClear(fx, fy, tx, ty);
+		default:
+			return false;
 		}
-		for (int i = 1; pos.x - i >= 0 && pos.y - i >= 0; i++) {
-			Piece piece = getPiece(pos.x - i, pos.y - i);
-			if (piece != null) {
-				if (piece.color != color &&
-						(piece.type == Type.BISHOP || piece.type == Type.QUEEN)) {
-					return true;
-				} else {
-					break;
-				}
+	}
+	
+	// Determines whether the squares between two squares on a line are empty
+	private boolean isPathClear(int fx, int fy, int tx, int ty) {
+		int sx = Integer.signum(tx - fx);
+		int sy = Integer.signum(ty - fy);
+		for (int x = fx + sx, y = fy + sy; x != tx || y != ty; x += sx, y += sy) {
+			if (board[x][y] != null) {
+				return false;
 			}
 		}
 		
-		// King
-		for (int i : new int[]{-1, 0, 1}) {
-			for (int j : new int[]{-1, 0, 1}) {
-				if (i == 0 && j == 0) {
-					continue;
-				}
-				try {
-					Piece piece = getPiece(pos.x + i, pos.y + j);
-					if (piece != null && piece.color != color && piece.type == Type.KING) {
-						return true;
-					}
-				} catch (IllegalArgumentException e) {}
-			}
+		return true;
+	}
+	
+	/**
+	 * Determines whether a pseudo-legal move leaves the king of the player
+	 * making it out of check. The move is made directly on the board, and
+	 * taken back before returning, so nothing else is updated.
+	 * 
+	 * @param from	The origin square, between 0 and 63
+	 * @param to	The target square, between 0 and 63
+	 * @return		Whether the king is safe after the move
+	 * @throws		IllegalStateException	If the player has no king
+	 */
+	boolean isKingSafeAfter(int from, int to) {
+		Piece piece = board[from % 8][from / 8];
+		Piece captured = board[to % 8][to / 8];
+		int king = piece.type == Type.KING ? to : kingSquares[piece.color.ordinal()];
+		if (king < 0) {
+			throw new IllegalStateException("There are no kings!");
 		}
 		
-		return false;
+		board[to % 8][to / 8] = piece;
+		board[from % 8][from / 8] = null;
+		boolean safe = !isSquareAttacked(king, piece.color == Color.WHITE ? Color.BLACK : Color.WHITE);
+		board[from % 8][from / 8] = piece;
+		board[to % 8][to / 8] = captured;
+		
+		return safe;
+	}
+	
+	/**
+	 * Determines whether moving the piece on one square to another is a
+	 * legal move for the player to move. Only this move is checked, against
+	 * the way the piece moves and the safety of the king, so this is much
+	 * cheaper than looking for the move in {@link #validMoves(Pos)}, and
+	 * nothing is allocated. A pawn that reaches the last rank is promoted
+	 * to a queen, like in {@link #move}.
+	 * 
+	 * Squares are numbered from 0 to 63 like in {@link PackedMove}. A
+	 * square outside the board never gives a legal move.
+	 * 
+	 * @param from	The square of the piece to move
+	 * @param to	The square to move it to
+	 * @return		Whether the move is legal
+	 * @throws		IllegalStateException	If the player to move has no king
+	 * @see			#validMoves(Pos)
+	 */
+	public boolean isLegal(int from, int to) {
+		if (from < 0 || from > 63 || to < 0 || to > 63) {
+			return false;
+		}
+		
+		return isPseudoLegal(from, to) && isKingSafeAfter(from, to);
+	}
+	
+	/**
+	 * Determines whether a move with the given promotion is legal, like
+	 * {@link #isLegal(int, int)}. Since pawns are always promoted to
+	 * queens, a move to the last rank is only legal with the queen as the
+	 * promotion, and any other move only without a promotion.
+	 * 
+	 * @param from		The square of the piece to move
+	 * @param to		The square to move it to
+	 * @param promotion	The type the pawn is promoted to, or null if the move isn't a promotion
+	 * @return			Whether the move is legal
+	 * @throws			IllegalStateException	If the player to move has no king
+	 */
+	public boolean isLegal(int from, int to, Type promotion) {
+		if (!isLegal(from, to)) {
+			return false;
+		}
+		
+		Piece piece = board[from % 8][from / 8];
+		boolean promotes = piece.type == Type.PAWN && (to < 8 || to >= 56);
+		return promotes ? promotion == Type.QUEEN : promotion == null;
 	}
 }
\ No newline at end of file
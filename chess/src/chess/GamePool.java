@@ -0,0 +1,64 @@
+package chess;
+
+import java.util.ArrayDeque;
+
+/**
+ * A per-thread pool of scratch games. Code that needs to try out moves
+ * on a copy of a position, like the legality check in
+ * {@link Game#validMoves}, can borrow a game from the pool instead of
+ * allocating a new one for every probe.
+ *
+ * A game is borrowed with {@link #acquire}, and must be handed back
+ * with {@link #release} by the same thread when it is no longer used,
+ * preferably in a finally block. Games are never shared between threads.
+ *
+ * @author	Sindre Stephansen
+ * @see		Game#copyFrom
+ */
+public final class GamePool {
+	// The pool won't keep more than this many idle games per thread
+	private static final int MAX_IDLE = 64;
+
+	private static final ThreadLocal<ArrayDeque<Game>> pool = new ThreadLocal<ArrayDeque<Game>>() {
+		@Override
+		protected ArrayDeque<Game> initialValue() {
+			return new ArrayDeque<Game>();
+		}
+	};
+
+	private GamePool() {}
+
+	/**
+	 * Borrows a scratch game from the pool of the current thread, and
+	 * copies the position of the given game into it.
+	 *
+	 * @param source	The game to copy the position from
+	 * @return			A scratch game in the same position as source
+	 * @see				Game#copyFrom
+	 */
+	public static Game acquire(Game source) {
+		Game game = pool.get().pollFirst();
+		if (game == null) {
+			Metrics.count(Metrics.POOL_MISSES);
+			game = new Game();
+		} else {
+			Metrics.count(Metrics.POOL_HITS);
+		}
+
+		game.copyFrom(source);
+		return game;
+	}
+
+	/**
+	 * Hands a scratch game back to the pool of the current thread.
+	 * The game must not be used after it has been released.
+	 *
+	 * @param game	The game to release
+	 */
+	public static void release(Game game) {
+		ArrayDeque<Game> games = pool.get();
+		if (games.size() < MAX_IDLE) {
+			games.addFirst(game);
+		}
+	}
+}
@@ -0,0 +1,400 @@
+package chess;
+
+import java.util.Arrays;
+
+/**
+ * A tree of variations, used to explore several lines from the same
+ * position. Variations share their common prefix, so a side line only
+ * costs the moves that differ from the line it branches off from.
+ *
+ * The nodes are stored in a few primitive arrays instead of one object
+ * per node, so the tree can hold a large number of nodes without putting
+ * pressure on the garbage collector. A node is identified by its index
+ * in these arrays. Node 0 is the root, which represents the starting
+ * position and has no move. The first child of a node is its main line,
+ * and the other children are side lines. Nodes removed by {@link #prune}
+ * are put on a free list and reused by later calls to {@link #add}.
+ *
+ * Moves are stored as packed moves, see {@link PackedMove}.
+ *
+ * @author	Sindre Stephansen
+ * @see		PackedMove
+ * @see		Game
+ */
+public class GameTree {
+	/**
+	 * The index of the root node.
+	 */
+	public static final int ROOT = 0;
+
+	/**
+	 * A value that never represents a node.
+	 */
+	public static final int NONE = -1;
+
+	/*
+	 * Attributes
+	 */
+
+	private int[] move;
+	private int[] parent;
+	private int[] firstChild;
+	private int[] nextSibling;
+
+	// The number of array slots that have ever been used
+	private int used;
+	// The number of nodes currently in the tree
+	private int size;
+	// The head of the list of free slots, linked through nextSibling
+	private int free = NONE;
+
+	/*
+	 * Constructors
+	 */
+
+	/**
+	 * Class constructor. Creates a tree containing only the root node.
+	 */
+	public GameTree() {
+		this(1024);
+	}
+
+	/**
+	 * Class constructor. Creates a tree containing only the root node,
+	 * with room for the given number of nodes before the arrays
+	 * need to grow.
+	 *
+	 * @param capacity	The initial number of nodes
+	 */
+	public GameTree(int capacity) {
+		capacity = Math.max(capacity, 16);
+		move = new int[capacity];
+		parent = new int[capacity];
+		firstChild = new int[capacity];
+		nextSibling = new int[capacity];
+		clear();
+	}
+
+	/*
+	 * Utility methods
+	 */
+
+	private int allocate() {
+		int node;
+
+		if (free != NONE) {
+			node = free;
+			free = nextSibling[node];
+		} else {
+			if (used == move.length) {
+				int capacity = move.length * 2;
+				move = Arrays.copyOf(move, capacity);
+				parent = Arrays.copyOf(parent, capacity);
+				firstChild = Arrays.copyOf(firstChild, capacity);
+				nextSibling = Arrays.copyOf(nextSibling, capacity);
+			}
+			node = used++;
+		}
+
+		size++;
+		return node;
+	}
+
+	private void checkNode(int node) {
+		if (node < 0 || node >= used || (node != ROOT && parent[node] == NONE)) {
+			throw new IllegalArgumentException("There is no node " + node + " in the tree");
+		}
+	}
+
+	// Removes the node from the list of children of its parent
+	private void unlink(int node) {
+		int p = parent[node];
+		if (firstChild[p] == node) {
+			firstChild[p] = nextSibling[node];
+		} else {
+			int prev = firstChild[p];
+			while (nextSibling[prev] != node) {
+				prev = nextSibling[prev];
+			}
+			nextSibling[prev] = nextSibling[node];
+		}
+		nextSibling[node] = NONE;
+	}
+
+	/*
+	 * Public methods
+	 */
+
+	/**
+	 * Removes all nodes except the root.
+	 */
+	public void clear() {
+		move[ROOT] = PackedMove.NONE;
+		parent[ROOT] = NONE;
+		firstChild[ROOT] = NONE;
+		nextSibling[ROOT] = NONE;
+		used = 1;
+		size = 1;
+		free = NONE;
+	}
+
+	/**
+	 * Returns the number of nodes in the tree, including the root.
+	 *
+	 * @return	The number of nodes in the tree
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Adds a move after the given node. If the node already has a child
+	 * with the same move, that child is returned instead of creating a new
+	 * node. A new node is added after the existing children, so the first
+	 * move added after a node becomes its main line.
+	 *
+	 * @param node	The node to add the move after
+	 * @param m		The packed move, see {@link PackedMove}
+	 * @return		The node representing the move
+	 * @throws		IllegalArgumentException	If the node isn't in the tree
+	 */
+	public int add(int node, int m) {
+		checkNode(node);
+
+		int last = NONE;
+		for (int child = firstChild[node]; child != NONE; child = nextSibling[child]) {
+			if (move[child] == m) {
+				return child;
+			}
+			last = child;
+		}
+
+		int child = allocate();
+		move[child] = m;
+		parent[child] = node;
+		firstChild[child] = NONE;
+		nextSibling[child] = NONE;
+
+		if (last == NONE) {
+			firstChild[node] = child;
+		} else {
+			nextSibling[last] = child;
+		}
+
+		return child;
+	}
+
+	/**
+	 * Adds a sequence of moves after the given node, sharing any
+	 * moves that are already in the tree.
+	 *
+	 * @param node	The node to add the moves after
+	 * @param line	The packed moves, see {@link PackedMove}
+	 * @return		The node representing the last move in the line
+	 * @throws		IllegalArgumentException	If the node isn't in the tree
+	 */
+	public int addLine(int node, int[] line) {
+		for (int m : line) {
+			node = add(node, m);
+		}
+
+		return node;
+	}
+
+	/**
+	 * Returns the child of the given node with the given move, or
+	 * {@link #NONE} if there is no such child.
+	 *
+	 * @param node	The node to search the children of
+	 * @param m		The packed move to search for
+	 * @return		The matching child, or NONE
+	 */
+	public int find(int node, int m) {
+		checkNode(node);
+
+		for (int child = firstChild[node]; child != NONE; child = nextSibling[child]) {
+			if (move[child] == m) {
+				return child;
+			}
+		}
+
+		return NONE;
+	}
+
+	/**
+	 * Returns the packed move of the given node. The root has no move,
+	 * so {@link PackedMove#NONE} is returned for it.
+	 *
+	 * @param node	The node
+	 * @return		The packed move of the node
+	 */
+	public int move(int node) {
+		checkNode(node);
+		return move[node];
+	}
+
+	/**
+	 * Returns the parent of the given node, or {@link #NONE} for the root.
+	 *
+	 * @param node	The node
+	 * @return		The parent of the node
+	 */
+	public int parent(int node) {
+		checkNode(node);
+		return parent[node];
+	}
+
+	/**
+	 * Returns the main line continuation of the given node, or {@link #NONE}
+	 * if there are no moves after it.
+	 *
+	 * @param node	The node
+	 * @return		The first child of the node
+	 */
+	public int firstChild(int node) {
+		checkNode(node);
+		return firstChild[node];
+	}
+
+	/**
+	 * Returns the next alternative to the given node, or {@link #NONE}
+	 * if it is the last one.
+	 *
+	 * @param node	The node
+	 * @return		The next sibling of the node
+	 */
+	public int nextSibling(int node) {
+		checkNode(node);
+		return nextSibling[node];
+	}
+
+	/**
+	 * Returns the number of moves from the root to the given node.
+	 *
+	 * @param node	The node
+	 * @return		The depth of the node
+	 */
+	public int depth(int node) {
+		checkNode(node);
+
+		int depth = 0;
+		while (node != ROOT) {
+			node = parent[node];
+			depth++;
+		}
+
+		return depth;
+	}
+
+	/**
+	 * Returns the moves leading from the root to the given node.
+	 *
+	 * @param node	The node
+	 * @return		The packed moves from the root to the node, in order
+	 */
+	public int[] line(int node) {
+		int[] line = new int[depth(node)];
+
+		for (int i = line.length - 1; i >= 0; i--) {
+			line[i] = move[node];
+			node = parent[node];
+		}
+
+		return line;
+	}
+
+	/**
+	 * Makes the given node the main line at its branching point,
+	 * by moving it in front of its siblings.
+	 *
+	 * @param node	The node to promote
+	 * @throws		IllegalArgumentException	If the node isn't in the tree
+	 */
+	public void promote(int node) {
+		checkNode(node);
+		if (node == ROOT || firstChild[parent[node]] == node) {
+			return;
+		}
+
+		int p = parent[node];
+		unlink(node);
+		nextSibling[node] = firstChild[p];
+		firstChild[p] = node;
+	}
+
+	/**
+	 * Makes the line leading to the given node the main line of
+	 * the whole tree, by promoting the node and all its ancestors.
+	 *
+	 * @param node	The node to make part of the main line
+	 * @throws		IllegalArgumentException	If the node isn't in the tree
+	 */
+	public void makeMainLine(int node) {
+		checkNode(node);
+
+		while (node != ROOT) {
+			promote(node);
+			node = parent[node];
+		}
+	}
+
+	/**
+	 * Removes the given node and all moves after it from the tree.
+	 * Removing the root removes all moves, but keeps the root itself.
+	 *
+	 * @param node	The node to remove
+	 * @throws		IllegalArgumentException	If the node isn't in the tree
+	 */
+	public void prune(int node) {
+		checkNode(node);
+
+		if (node == ROOT) {
+			clear();
+			return;
+		}
+
+		unlink(node);
+
+		// Walk the subtree without recursion, freeing each node after
+		// its children have been taken care of.
+		int current = node;
+		while (true) {
+			while (firstChild[current] != NONE) {
+				current = firstChild[current];
+			}
+
+			int p = parent[current];
+			if (current != node) {
+				firstChild[p] = nextSibling[current];
+			}
+
+			parent[current] = NONE;
+			nextSibling[current] = free;
+			free = current;
+			size--;
+
+			if (current == node) {
+				break;
+			}
+			current = p;
+		}
+	}
+
+	/**
+	 * Plays the moves from the root to the given node on the game.
+	 * The game should be in the position the root represents.
+	 *
+	 * @param game	The game to play the moves on
+	 * @param node	The node to play to
+	 * @throws		IllegalArgumentException	If a move in the line isn't legal
+	 */
+	public void play(Game game, int node) {
+		for (int m : line(node)) {
+			Move move = PackedMove.toMove(game, m);
+			if (move == null) {
+				throw new IllegalArgumentException("The move " + PackedMove.toString(m) + " isn't legal");
+			}
+			game.move(move);
+		}
+	}
+}
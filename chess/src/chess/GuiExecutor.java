@@ -0,0 +1,135 @@
+package chess;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import javafx.concurrent.Task;
+import javafx.concurrent.WorkerStateEvent;
+import javafx.event.EventHandler;
+import javafx.scene.control.ProgressIndicator;
+
+/**
+ * Runs slow work for the GUI, like move generation and file I/O, on a
+ * background thread, so the JavaFX Application Thread is never blocked.
+ *
+ * Work is submitted as JavaFX tasks. The result handlers of a task
+ * (setOnSucceeded and friends) are called on the JavaFX Application
+ * Thread through Platform.runLater, so they can safely touch the scene
+ * graph. Tasks that are submitted with progress are shown on the given
+ * progress indicator while they run.
+ *
+ * The tasks must not touch a Game that is used by the GUI, since Game
+ * isn't thread safe. Give them a copy instead, see {@link Game#copyFrom}.
+ * All methods of this class must be called on the JavaFX Application Thread.
+ *
+ * @author	Sindre Stephansen
+ * @see		Chess
+ */
+public class GuiExecutor {
+	private final ExecutorService executor;
+	private final ProgressIndicator progress;
+	private final ArrayList<Task<?>> running = new ArrayList<Task<?>>();
+	private int progressTasks = 0;
+
+	/**
+	 * Class constructor.
+	 *
+	 * @param progress	The indicator to show progress on, which is hidden while
+	 * 					no tasks with progress are running
+	 */
+	public GuiExecutor(ProgressIndicator progress) {
+		this.progress = progress;
+		this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "chess-background");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+
+		progress.setVisible(false);
+	}
+
+	/*
+	 * Utility methods
+	 */
+
+	private void finished(Task<?> task, boolean showProgress) {
+		if (!running.remove(task)) {
+			return;
+		}
+
+		if (showProgress) {
+			progressTasks--;
+			if (progressTasks == 0) {
+				progress.progressProperty().unbind();
+				progress.setVisible(false);
+			}
+		}
+	}
+
+	private <T> EventHandler<WorkerStateEvent> chain(final Task<T> task, final boolean showProgress,
+			final EventHandler<WorkerStateEvent> handler) {
+		return new EventHandler<WorkerStateEvent>() {
+			@Override
+			public void handle(WorkerStateEvent e) {
+				finished(task, showProgress);
+				if (handler != null) {
+					handler.handle(e);
+				}
+			}
+		};
+	}
+
+	/*
+	 * Public methods
+	 */
+
+	/**
+	 * Starts a task on the background thread. The handlers of the task
+	 * must be set before it is submitted. If showProgress is true, the
+	 * progress indicator is shown until the task is done, and shows the
+	 * progress the task reports through updateProgress.
+	 *
+	 * @param task			The task to run
+	 * @param showProgress	Whether to show the progress of the task
+	 * @return				The task, which can be used to cancel it
+	 */
+	public <T> Task<T> submit(Task<T> task, boolean showProgress) {
+		task.setOnSucceeded(chain(task, showProgress, task.getOnSucceeded()));
+		task.setOnFailed(chain(task, showProgress, task.getOnFailed()));
+		task.setOnCancelled(chain(task, showProgress, task.getOnCancelled()));
+
+		running.add(task);
+		if (showProgress) {
+			if (progressTasks == 0) {
+				progress.progressProperty().bind(task.progressProperty());
+				progress.setVisible(true);
+			}
+			progressTasks++;
+		}
+
+		executor.execute(task);
+		return task;
+	}
+
+	/**
+	 * Cancels all tasks that are waiting or running.
+	 */
+	public void cancelAll() {
+		for (Task<?> task : new ArrayList<Task<?>>(running)) {
+			task.cancel();
+		}
+	}
+
+	/**
+	 * Cancels all tasks and stops the background thread.
+	 */
+	public void shutdown() {
+		cancelAll();
+		executor.shutdownNow();
+	}
+}
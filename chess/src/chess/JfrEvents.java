@@ -0,0 +1,66 @@
+package chess;
+
+/**
+ * Records the events of {@link Events} with Flight Recorder. This and the
+ * event classes are the only classes that use the jdk.jfr API, and this
+ * class is only loaded by Events when the API is available.
+ *
+ * @author	Sindre Stephansen
+ * @see		Events
+ */
+final class JfrEvents implements Events.Recorder {
+	@Override
+	public Object beginMoveGeneration() {
+		MoveGenerationEvent event = new MoveGenerationEvent();
+		event.begin();
+		return event;
+	}
+
+	@Override
+	public Object beginStorage() {
+		StorageEvent event = new StorageEvent();
+		event.begin();
+		return event;
+	}
+
+	@Override
+	public Object beginSearchIteration() {
+		SearchIterationEvent event = new SearchIterationEvent();
+		event.begin();
+		return event;
+	}
+
+	@Override
+	public boolean shouldCommit(Object event) {
+		return ((jdk.jfr.Event) event).shouldCommit();
+	}
+
+	@Override
+	public void commitMoveGeneration(Object e, String pieceType, String origin, int moveCount) {
+		MoveGenerationEvent event = (MoveGenerationEvent) e;
+		event.pieceType = pieceType;
+		event.origin = origin;
+		event.moveCount = moveCount;
+		event.commit();
+	}
+
+	@Override
+	public void commitStorage(Object e, String operation, String file, long bytes) {
+		StorageEvent event = (StorageEvent) e;
+		event.operation = operation;
+		event.file = file;
+		event.bytes = bytes;
+		event.commit();
+	}
+
+	@Override
+	public void commitSearchIteration(Object e, int depth, long nodes, int score, String pv, boolean completed) {
+		SearchIterationEvent event = (SearchIterationEvent) e;
+		event.depth = depth;
+		event.nodes = nodes;
+		event.score = score;
+		event.pv = pv;
+		event.completed = completed;
+		event.commit();
+	}
+}
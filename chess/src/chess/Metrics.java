@@ -0,0 +1,347 @@
+package chess;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters and latency histograms for the hot methods of the engine, like
+ * {@link Game#validMoves(Pos)}, {@link Game#isInCheck} and the storage
+ * classes. The metrics can be read through JMX, under the name
+ * 'chess:type=Metrics', or as text through {@link #dump}.
+ *
+ * The metrics are off by default, and cost a single read of a volatile
+ * field per call while they are off. They are turned on with
+ * {@link #enable}, or by starting the JVM with -Dchess.metrics=true.
+ * The counters are LongAdders, so threads updating them at the same time
+ * don't contend on a single memory location.
+ *
+ * @author	Sindre Stephansen
+ * @see		MetricsMBean
+ */
+public final class Metrics implements MetricsMBean {
+	/**
+	 * A histogram of durations with fixed buckets. Bucket i counts the
+	 * durations that need i bits in nanoseconds, so bucket i holds
+	 * durations from 2^(i-1) up to 2^i - 1 nanoseconds, and the last
+	 * bucket holds everything longer.
+	 */
+	public static final class Histogram {
+		/**
+		 * The number of buckets. The last one starts at about 1 second.
+		 */
+		public static final int BUCKETS = 32;
+
+		private final String name;
+		private final LongAdder count = new LongAdder();
+		private final LongAdder total = new LongAdder();
+		private final LongAdder[] buckets = new LongAdder[BUCKETS];
+
+		Histogram(String name) {
+			this.name = name;
+			for (int i = 0; i < BUCKETS; i++) {
+				buckets[i] = new LongAdder();
+			}
+		}
+
+		/**
+		 * Records a duration.
+		 *
+		 * @param nanos	The duration in nanoseconds
+		 */
+		public void record(long nanos) {
+			int bucket = Math.min(64 - Long.numberOfLeadingZeros(Math.max(nanos, 0)), BUCKETS - 1);
+			buckets[bucket].increment();
+			count.increment();
+			total.add(nanos);
+		}
+
+		/**
+		 * Records the time since the given start time, if the start time
+		 * isn't 0. This matches the value returned by {@link Metrics#start}.
+		 *
+		 * @param start	The start time from {@link Metrics#start}
+		 */
+		public void stop(long start) {
+			if (start != 0) {
+				record(System.nanoTime() - start);
+			}
+		}
+
+		/**
+		 * Returns the number of durations recorded.
+		 *
+		 * @return	The number of durations recorded
+		 */
+		public long count() {
+			return count.sum();
+		}
+
+		/**
+		 * Returns the sum of all durations recorded.
+		 *
+		 * @return	The total duration in nanoseconds
+		 */
+		public long total() {
+			return total.sum();
+		}
+
+		/**
+		 * Returns the number of durations in each bucket.
+		 *
+		 * @return	The bucket counts
+		 */
+		public long[] buckets() {
+			long[] result = new long[BUCKETS];
+			for (int i = 0; i < BUCKETS; i++) {
+				result[i] = buckets[i].sum();
+			}
+			return result;
+		}
+
+		/**
+		 * Returns an upper bound of the given percentile, from the buckets.
+		 *
+		 * @param percentile	The percentile, between 0 and 100
+		 * @return				The upper bound in nanoseconds, or 0 if nothing was recorded
+		 */
+		public long percentile(double percentile) {
+			long[] counts = buckets();
+			long n = 0;
+			for (long c : counts) {
+				n += c;
+			}
+			if (n == 0) {
+				return 0;
+			}
+
+			long target = (long) Math.ceil(n * percentile / 100);
+			long seen = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				seen += counts[i];
+				if (seen >= Math.max(target, 1)) {
+					return (1L << i) - 1;
+				}
+			}
+			return Long.MAX_VALUE;
+		}
+
+		void reset() {
+			count.reset();
+			total.reset();
+			for (LongAdder bucket : buckets) {
+				bucket.reset();
+			}
+		}
+
+		@Override
+		public String toString() {
+			long n = count();
+			return String.format("%-16s count=%d mean=%dns p50<=%dns p99<=%dns",
+					name, n, n == 0 ? 0 : total() / n, percentile(50), percentile(99));
+		}
+	}
+
+	/*
+	 * Class attributes
+	 */
+
+	static volatile boolean enabled = Boolean.getBoolean("chess.metrics");
+
+	public static final Histogram VALID_MOVES = new Histogram("validMoves");
+	public static final Histogram IS_IN_CHECK = new Histogram("isInCheck");
+	public static final Histogram STORAGE_READ = new Histogram("storageRead");
+	public static final Histogram STORAGE_WRITE = new Histogram("storageWrite");
+
+	public static final LongAdder CLONES = new LongAdder();
+	public static final LongAdder POOL_HITS = new LongAdder();
+	public static final LongAdder POOL_MISSES = new LongAdder();
+	public static final LongAdder PAWN_HITS = new LongAdder();
+	public static final LongAdder PAWN_MISSES = new LongAdder();
+
+	private static final Metrics INSTANCE = new Metrics();
+	private static volatile long resetTime = System.nanoTime();
+	private static boolean registered = false;
+
+	private Metrics() {}
+
+	static {
+		if (enabled) {
+			register();
+		}
+	}
+
+	/*
+	 * Class methods
+	 */
+
+	/**
+	 * Returns the current time if metrics are on, and 0 if not. The
+	 * result should be passed to {@link Histogram#stop} when the measured
+	 * operation is done.
+	 *
+	 * @return	The start time in nanoseconds, or 0
+	 */
+	public static long start() {
+		return enabled ? System.nanoTime() : 0;
+	}
+
+	/**
+	 * Counts one event, if metrics are on.
+	 *
+	 * @param counter	The counter to increment
+	 */
+	public static void count(LongAdder counter) {
+		if (enabled) {
+			counter.increment();
+		}
+	}
+
+	/**
+	 * Turns the metrics on, and registers them with the platform MBean server.
+	 */
+	public static void enable() {
+		enabled = true;
+		register();
+	}
+
+	/**
+	 * Turns the metrics off. The values collected so far are kept.
+	 */
+	public static void disable() {
+		enabled = false;
+	}
+
+	private static synchronized void register() {
+		if (registered) {
+			return;
+		}
+
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			server.registerMBean(INSTANCE, new ObjectName("chess:type=Metrics"));
+			registered = true;
+		} catch (JMException e) {
+			throw new IllegalStateException("Could not register the metrics MBean", e);
+		}
+	}
+
+	/**
+	 * Returns a text dump of all metrics, with one line per metric.
+	 *
+	 * @return	The metrics as text
+	 */
+	public static String dump() {
+		return INSTANCE.getDump();
+	}
+
+	/*
+	 * MBean methods
+	 */
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void setEnabled(boolean on) {
+		if (on) {
+			enable();
+		} else {
+			disable();
+		}
+	}
+
+	public void reset() {
+		VALID_MOVES.reset();
+		IS_IN_CHECK.reset();
+		STORAGE_READ.reset();
+		STORAGE_WRITE.reset();
+		CLONES.reset();
+		POOL_HITS.reset();
+		POOL_MISSES.reset();
+		PAWN_HITS.reset();
+		PAWN_MISSES.reset();
+		resetTime = System.nanoTime();
+	}
+
+	public double getSecondsSinceReset() {
+		return (System.nanoTime() - resetTime) / 1e9;
+	}
+
+	public long getValidMovesCalls() {
+		return VALID_MOVES.count();
+	}
+
+	public long getIsInCheckCalls() {
+		return IS_IN_CHECK.count();
+	}
+
+	public long getStorageReads() {
+		return STORAGE_READ.count();
+	}
+
+	public long getStorageWrites() {
+		return STORAGE_WRITE.count();
+	}
+
+	public long getClones() {
+		return CLONES.sum();
+	}
+
+	public long getPoolHits() {
+		return POOL_HITS.sum();
+	}
+
+	public long getPoolMisses() {
+		return POOL_MISSES.sum();
+	}
+
+	public long getPawnTableHits() {
+		return PAWN_HITS.sum();
+	}
+
+	public long getPawnTableMisses() {
+		return PAWN_MISSES.sum();
+	}
+
+	public double getPawnTableHitRate() {
+		long hits = PAWN_HITS.sum();
+		long total = hits + PAWN_MISSES.sum();
+		return total == 0 ? 0 : (double) hits / total;
+	}
+
+	public long[] getValidMovesHistogram() {
+		return VALID_MOVES.buckets();
+	}
+
+	public long[] getIsInCheckHistogram() {
+		return IS_IN_CHECK.buckets();
+	}
+
+	public long[] getStorageReadHistogram() {
+		return STORAGE_READ.buckets();
+	}
+
+	public long[] getStorageWriteHistogram() {
+		return STORAGE_WRITE.buckets();
+	}
+
+	public String getDump() {
+		double seconds = Math.max(getSecondsSinceReset(), 1e-9);
+		StringBuilder builder = new StringBuilder();
+
+		builder.append(String.format("metrics enabled=%b seconds=%.1f%n", enabled, seconds));
+		for (Histogram histogram : new Histogram[] {VALID_MOVES, IS_IN_CHECK, STORAGE_READ, STORAGE_WRITE}) {
+			builder.append(histogram).append(String.format(" rate=%.0f/s%n", histogram.count() / seconds));
+		}
+		builder.append(String.format("%-16s count=%d rate=%.0f/s%n", "clones", CLONES.sum(), CLONES.sum() / seconds));
+		builder.append(String.format("%-16s hits=%d misses=%d%n", "gamePool", POOL_HITS.sum(), POOL_MISSES.sum()));
+		builder.append(String.format("%-16s hits=%d misses=%d hitrate=%.1f%%%n", "pawnTable",
+				PAWN_HITS.sum(), PAWN_MISSES.sum(), 100 * getPawnTableHitRate()));
+
+		return builder.toString();
+	}
+}
@@ -0,0 +1,48 @@
+package chess;
+
+/**
+ * The JMX interface of {@link Metrics}. Counts are totals since the last
+ * reset, and histograms are given as bucket counts, see {@link Metrics.Histogram}.
+ * 
+ * @author	Sindre Stephansen
+ * @see		Metrics
+ */
+public interface MetricsMBean {
+	public boolean isEnabled();
+	
+	public void setEnabled(boolean enabled);
+	
+	public void reset();
+	
+	public double getSecondsSinceReset();
+	
+	public long getValidMovesCalls();
+	
+	public long getIsInCheckCalls();
+	
+	public long getStorageReads();
+	
+	public long getStorageWrites();
+	
+	public long getClones();
+	
+	public long getPoolHits();
+	
+	public long getPoolMisses();
+
+	public long getPawnTableHits();
+
+	public long getPawnTableMisses();
+
+	public double getPawnTableHitRate();
+	
+	public long[] getValidMovesHistogram();
+	
+	public long[] getIsInCheckHistogram();
+	
+	public long[] getStorageReadHistogram();
+	
+	public long[] getStorageWriteHistogram();
+	
+	public String getDump();
+}
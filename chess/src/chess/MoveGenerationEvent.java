@@ -0,0 +1,30 @@
+package chess;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A Flight Recorder event for a call to {@link Game#validMoves(Pos)}.
+ * The duration of the event is the time spent generating the moves.
+ * 
+ * @author	Sindre Stephansen
+ * @see		Game#validMoves(Pos)
+ */
+@Name("chess.MoveGeneration")
+@Label("Move Generation")
+@Category("Chess")
+@Description("Generation of the legal moves of a piece")
+@StackTrace(false)
+final class MoveGenerationEvent extends jdk.jfr.Event {
+	@Label("Piece Type")
+	String pieceType;
+	
+	@Label("Origin")
+	String origin;
+	
+	@Label("Move Count")
+	int moveCount;
+}
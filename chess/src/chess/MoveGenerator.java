@@ -0,0 +1,413 @@
+package chess;
+
+import chess.Piece.Color;
+import chess.Piece.Type;
+
+/**
+ * Generates the legal moves of a position lazily, in stages, as packed
+ * moves. Most nodes of a search are cut off after one or a few moves, and
+ * {@link Game#validMoves} spends most of its time generating and checking
+ * moves such a node never looks at. This generator only does the work of
+ * a stage when the moves before it have been used up, in this order:
+ *
+ * <ol>
+ * <li>The hash move, which needs no generation at all.</li>
+ * <li>Captures and promotions that don't lose material according to
+ * {@link StaticExchange}, ordered by most valuable victim and then least
+ * valuable attacker.</li>
+ * <li>The killer moves of the ply.</li>
+ * <li>The other quiet moves, ordered by the history heuristic.</li>
+ * <li>The captures that lose material.</li>
+ * </ol>
+ *
+ * Moves are generated pseudo-legally, following the same rules as
+ * validMoves, and a move is only checked for leaving the king in check,
+ * with {@link Game#isKingSafeAfter}, when it is about to be handed out.
+ * A generator is meant to be reused for every node at the same ply, so
+ * generating doesn't allocate.
+ *
+ * @author	Sindre Stephansen
+ * @see		MoveOrdering
+ * @see		Search
+ */
+public class MoveGenerator {
+	// The stages, in the order they are run
+	private static final int HASH = 0;
+	private static final int GENERATE_CAPTURES = 1;
+	private static final int GOOD_CAPTURES = 2;
+	private static final int KILLERS = 3;
+	private static final int GENERATE_QUIETS = 4;
+	private static final int QUIETS = 5;
+	private static final int BAD_CAPTURES = 6;
+	private static final int DONE = 7;
+
+	// No position has more moves than this
+	private static final int MAX_MOVES = 256;
+
+
+	/*
+	 * Attributes
+	 */
+
+	private Game game;
+	private MoveOrdering ordering;
+	private int ply;
+	private int hashMove;
+	private boolean tacticalOnly;
+	private Color color;
+
+	private int stage;
+	private int picked;
+
+	private final int[] captures = new int[MAX_MOVES];
+	private final int[] captureScores = new int[MAX_MOVES];
+	private int captureCount;
+	private int captureIndex;
+
+	private final int[] badCaptures = new int[MAX_MOVES];
+	private int badCount;
+	private int badIndex;
+
+	// The buffer for static exchange evaluation
+	private final int[] gain = new int[StaticExchange.GAIN_SIZE];
+
+	private final int[] killers = new int[2];
+	private int killerIndex;
+
+	private final int[] quiets = new int[MAX_MOVES];
+	private final int[] quietScores = new int[MAX_MOVES];
+	private int quietCount;
+	private int quietIndex;
+
+	/*
+	 * Utility methods
+	 */
+
+	private void reset(Game game, MoveOrdering ordering, int ply, int hashMove, boolean tacticalOnly) {
+		this.game = game;
+		this.ordering = ordering;
+		this.ply = ply;
+		this.hashMove = hashMove;
+		this.tacticalOnly = tacticalOnly;
+		this.color = game.getCurrentColor();
+		this.stage = HASH;
+		this.picked = 0;
+		this.captureCount = 0;
+		this.captureIndex = 0;
+		this.badCount = 0;
+		this.badIndex = 0;
+		this.killerIndex = 0;
+		this.quietCount = 0;
+		this.quietIndex = 0;
+	}
+
+	private Piece at(int x, int y) {
+		return game.board[x][y];
+	}
+
+	private static boolean onBoard(int x, int y) {
+		return x >= 0 && x < 8 && y >= 0 && y < 8;
+	}
+
+	private boolean isTactical(int from, int to) {
+		Piece piece = game.board[from % 8][from / 8];
+		return game.board[to % 8][to / 8] != null ||
+				(piece.type == Type.PAWN && (to < 8 || to >= 56));
+	}
+
+	// Adds a move to the captures or to the quiet moves
+	private void add(int from, int to, boolean tactical) {
+		if (tactical) {
+			captures[captureCount++] = PackedMove.of(from, to);
+		} else {
+			quiets[quietCount++] = PackedMove.of(from, to);
+		}
+	}
+
+	// Adds the moves along the given directions, up to and including the
+	// first piece in the way, if it is an opponent's piece
+	private void slide(int x, int y, int[][] directions, boolean tactical) {
+		int from = x + 8*y;
+		for (int[] d : directions) {
+			int tx = x + d[0];
+			int ty = y + d[1];
+			while (onBoard(tx, ty)) {
+				Piece other = at(tx, ty);
+				if (other == null) {
+					if (!tactical) {
+						add(from, tx + 8*ty, false);
+					}
+				} else {
+					if (tactical && other.color != color) {
+						add(from, tx + 8*ty, true);
+					}
+					break;
+				}
+				tx += d[0];
+				ty += d[1];
+			}
+		}
+	}
+
+	// Adds the moves to the given offsets
+	private void jump(int x, int y, int[][] offsets, boolean tactical) {
+		for (int[] d : offsets) {
+			int tx = x + d[0];
+			int ty = y + d[1];
+			if (onBoard(tx, ty)) {
+				Piece other = at(tx, ty);
+				if (other == null ? !tactical : tactical && other.color != color) {
+					add(x + 8*y, tx + 8*ty, tactical);
+				}
+			}
+		}
+	}
+
+	private void pawn(int x, int y, boolean tactical) {
+		int forward = color == Color.WHITE ? 1 : -1;
+		int from = x + 8*y;
+		int ty = y + forward;
+		if (!onBoard(x, ty)) {
+			return;
+		}
+		boolean promotion = ty == 0 || ty == 7;
+
+		// A promotion is tactical even if it doesn't capture
+		if (at(x, ty) == null && promotion == tactical) {
+			add(from, x + 8*ty, tactical);
+		}
+		// The double step only needs the target square to be empty, like in validMoves
+		if (!tactical && (y == 1 || y == 6) && onBoard(x, y + 2*forward) && at(x, y + 2*forward) == null) {
+			add(from, x + 8*(y + 2*forward), false);
+		}
+
+		if (tactical) {
+			for (int dx = -1; dx <= 1; dx += 2) {
+				if (onBoard(x + dx, ty)) {
+					Piece other = at(x + dx, ty);
+					if (other != null && other.color != color) {
+						add(from, x + dx + 8*ty, true);
+					}
+				}
+			}
+		}
+	}
+
+	// Generates the captures and promotions, or the quiet moves
+	private void generate(boolean tactical) {
+		for (int y = 0; y < 8; y++) {
+			for (int x = 0; x < 8; x++) {
+				Piece piece = at(x, y);
+				if (piece == null || piece.color != color) {
+					continue;
+				}
+
+				switch (piece.type) {
+				case PAWN:
+					pawn(x, y, tactical);
+					break;
+				case ROOK:
+					slide(x, y, Game.LINES, tactical);
+					break;
+				case KNIGHT:
+					jump(x, y, Game.KNIGHT_OFFSETS, tactical);
+					break;
+				case BISHOP:
+					slide(x, y, Game.DIAGONALS, tactical);
+					break;
+				case QUEEN:
+					slide(x, y, Game.DIAGONALS, tactical);
+					slide(x, y, Game.LINES, tactical);
+					break;
+				case KING:
+					jump(x, y, Game.KING_OFFSETS, tactical);
+					break;
+				}
+			}
+		}
+	}
+
+	// Determines whether a move that wasn't generated in this position,
+	// like the hash move or a killer move, can be played here
+	private boolean isPseudoLegal(int move) {
+		return move != PackedMove.NONE && game.isPseudoLegal(PackedMove.from(move), PackedMove.to(move));
+	}
+
+	private boolean isLegal(int move) {
+		return game.isKingSafeAfter(PackedMove.from(move), PackedMove.to(move));
+	}
+
+	// Picks the best scored move from the given index on, and swaps it there
+	private static int pick(int[] moves, int[] scores, int index, int count) {
+		int best = index;
+		for (int i = index + 1; i < count; i++) {
+			if (scores[i] > scores[best]) {
+				best = i;
+			}
+		}
+
+		int move = moves[best];
+		int score = scores[best];
+		moves[best] = moves[index];
+		scores[best] = scores[index];
+		moves[index] = move;
+		scores[index] = score;
+		return move;
+	}
+
+	private boolean isKiller(int move) {
+		return move == killers[0] || move == killers[1];
+	}
+
+	/*
+	 * Public methods
+	 */
+
+	/**
+	 * Prepares the generator for the moves of a new position.
+	 *
+	 * @param game		The game in the position to generate moves for
+	 * @param ordering	The heuristics to order the moves with
+	 * @param ply		The distance from the root of the search
+	 * @param hashMove	A packed move to hand out before all others, or
+	 * 					{@link PackedMove#NONE}. It is checked before it is used.
+	 */
+	public void init(Game game, MoveOrdering ordering, int ply, int hashMove) {
+		reset(game, ordering, ply, hashMove, false);
+	}
+
+	/**
+	 * Prepares the generator for only the captures and promotions of a new
+	 * position that don't lose material, as searched by quiescence search.
+	 *
+	 * @param game		The game in the position to generate moves for
+	 * @param ordering	The heuristics to order the moves with
+	 * @param ply		The distance from the root of the search
+	 */
+	public void initTactical(Game game, MoveOrdering ordering, int ply) {
+		reset(game, ordering, ply, PackedMove.NONE, true);
+		stage = GENERATE_CAPTURES;
+	}
+
+	/**
+	 * Returns the next legal move, generating the next stage if needed.
+	 * The game must be in the same position as when the generator was
+	 * prepared, so moves that are searched must be taken back first.
+	 *
+	 * @return	The next packed move, or {@link PackedMove#NONE} when there are no more
+	 */
+	public int next() {
+		while (true) {
+			switch (stage) {
+			case HASH:
+				stage = GENERATE_CAPTURES;
+				if (isPseudoLegal(hashMove) && isLegal(hashMove)) {
+					picked++;
+					return hashMove;
+				}
+				break;
+
+			case GENERATE_CAPTURES:
+				generate(true);
+				for (int i = 0; i < captureCount; i++) {
+					captureScores[i] = ordering.score(game, captures[i], ply);
+				}
+				stage = GOOD_CAPTURES;
+				break;
+
+			case GOOD_CAPTURES:
+				if (captureIndex < captureCount) {
+					int move = pick(captures, captureScores, captureIndex++, captureCount);
+					if (move == hashMove) {
+						break;
+					}
+					if (StaticExchange.evaluate(game, PackedMove.from(move), PackedMove.to(move), gain) < 0) {
+						badCaptures[badCount++] = move;
+						break;
+					}
+					if (isLegal(move)) {
+						picked++;
+						return move;
+					}
+					break;
+				}
+				if (tacticalOnly) {
+					stage = DONE;
+				} else {
+					killers[0] = ordering.killer(ply, 0);
+					killers[1] = ordering.killer(ply, 1);
+					stage = KILLERS;
+				}
+				break;
+
+			case KILLERS:
+				if (killerIndex < killers.length) {
+					int move = killers[killerIndex++];
+					if (move != hashMove && isPseudoLegal(move) &&
+							!isTactical(PackedMove.from(move), PackedMove.to(move)) && isLegal(move)) {
+						picked++;
+						return move;
+					}
+					break;
+				}
+				stage = GENERATE_QUIETS;
+				break;
+
+			case GENERATE_QUIETS:
+				generate(false);
+				for (int i = 0; i < quietCount; i++) {
+					quietScores[i] = ordering.score(game, quiets[i], ply);
+				}
+				stage = QUIETS;
+				break;
+
+			case QUIETS:
+				if (quietIndex < quietCount) {
+					int move = pick(quiets, quietScores, quietIndex++, quietCount);
+					if (move != hashMove && !isKiller(move) && isLegal(move)) {
+						picked++;
+						return move;
+					}
+					break;
+				}
+				stage = BAD_CAPTURES;
+				break;
+
+			case BAD_CAPTURES:
+				if (badIndex < badCount) {
+					int move = badCaptures[badIndex++];
+					if (isLegal(move)) {
+						picked++;
+						return move;
+					}
+					break;
+				}
+				stage = DONE;
+				break;
+
+			default:
+				return PackedMove.NONE;
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of moves that have been returned so far.
+	 *
+	 * @return	The number of moves picked
+	 */
+	public int picked() {
+		return picked;
+	}
+
+	/**
+	 * Creates a move object for a packed move returned by {@link #next},
+	 * that can be passed to {@link Game#move}.
+	 *
+	 * @param move	The packed move
+	 * @return		The move, for the current turn of the game
+	 */
+	public Move toMove(int move) {
+		return new Move(new Pos[][] {{PackedMove.SQUARES[PackedMove.from(move)], PackedMove.SQUARES[PackedMove.to(move)]}}, game.turn);
+	}
+}
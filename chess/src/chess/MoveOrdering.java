@@ -0,0 +1,182 @@
+package chess;
+
+import java.util.Arrays;
+
+/**
+ * Heuristics for the order moves are searched in. Alpha-beta search cuts
+ * off more of the tree when the best move is searched first, so moves are
+ * searched in this order:
+ * 
+ * <ol>
+ * <li>Captures and promotions, ordered by most valuable victim and then
+ * least valuable attacker (MVV-LVA).</li>
+ * <li>Killer moves: quiet moves that caused a cutoff at the same ply
+ * in another part of the tree.</li>
+ * <li>Other quiet moves, ordered by the history heuristic: how often the
+ * same move from the same square caused a cutoff anywhere in the tree.</li>
+ * </ol>
+ * 
+ * The moves are generated in this order, stage by stage, by a
+ * {@link MoveGenerator}.
+ * 
+ * @author	Sindre Stephansen
+ * @see		MoveGenerator
+ * @see		Search
+ */
+public class MoveOrdering {
+	/**
+	 * The value of each piece type, in the order of {@link Piece.Type}.
+	 */
+	static final int[] VALUES = {100, 500, 320, 330, 900, 20000};
+	
+	// The rank of each piece type as an attacker, from the cheapest, in the
+	// order of Piece.Type
+	private static final int[] ATTACKERS = {0, 3, 1, 2, 4, 5};
+	
+	// The score bands of the stages, from best to worst
+	static final int CAPTURE = 3000000;
+	static final int KILLER = 2000000;
+	// History scores are kept below this, so they stay below the killers
+	private static final int HISTORY_MAX = 1000000;
+	
+	// Two killer moves per ply, as packed moves
+	private final int[][] killers = new int[Search.MAX_PLY + 1][2];
+	
+	// History scores, indexed by color, origin and target square
+	private final int[][] history = new int[2][64 * 64];
+	
+	/**
+	 * Class constructor.
+	 */
+	public MoveOrdering() {
+		clear();
+	}
+	
+	/**
+	 * Forgets the killer moves, and halves the history scores, so older
+	 * searches count less than the current one.
+	 */
+	public void newSearch() {
+		for (int[] k : killers) {
+			Arrays.fill(k, PackedMove.NONE);
+		}
+		for (int[] h : history) {
+			for (int i = 0; i < h.length; i++) {
+				h[i] /= 2;
+			}
+		}
+	}
+	
+	/**
+	 * Forgets everything that has been learned.
+	 */
+	public void clear() {
+		for (int[] k : killers) {
+			Arrays.fill(k, PackedMove.NONE);
+		}
+		for (int[] h : history) {
+			Arrays.fill(h, 0);
+		}
+	}
+	
+	/**
+	 * Scores a move for ordering. Higher scores are searched first.
+	 * 
+	 * @param game	The game the move is to be played in
+	 * @param move	The move to score
+	 * @param ply	The distance from the root of the search
+	 * @return		The score of the move
+	 */
+	public int score(Game game, Move move, int ply) {
+		return score(game, PackedMove.of(move), ply);
+	}
+	
+	/**
+	 * Scores a packed move for ordering, like {@link #score(Game, Move, int)}.
+	 * 
+	 * @param game	The game the move is to be played in
+	 * @param move	The packed move to score
+	 * @param ply	The distance from the root of the search
+	 * @return		The score of the move
+	 */
+	public int score(Game game, int move, int ply) {
+		int from = PackedMove.from(move);
+		int to = PackedMove.to(move);
+		Piece attacker = game.board[from % 8][from / 8];
+		Piece victim = game.board[to % 8][to / 8];
+		boolean promotion = attacker.type == Piece.Type.PAWN && (to < 8 || to >= 56);
+		
+		if (victim != null || promotion) {
+			int value = victim == null ? 0 : VALUES[victim.type.ordinal()];
+			if (promotion) {
+				value += VALUES[Piece.Type.QUEEN.ordinal()];
+			}
+			// The attacker only breaks ties between equal victims
+			return CAPTURE + value * 64 - ATTACKERS[attacker.type.ordinal()];
+		}
+		
+		if (move == killers[ply][0]) {
+			return KILLER + 1;
+		} else if (move == killers[ply][1]) {
+			return KILLER;
+		}
+		
+		return history[attacker.color.ordinal()][move];
+	}
+	
+	/**
+	 * Returns one of the two killer moves of a ply.
+	 * 
+	 * @param ply	The distance from the root of the search
+	 * @param index	0 for the newest killer move, 1 for the older one
+	 * @return		The packed killer move, or {@link PackedMove#NONE}
+	 */
+	int killer(int ply, int index) {
+		return killers[ply][index];
+	}
+	
+	/**
+	 * Determines whether the move is a capture or a promotion.
+	 * 
+	 * @param game	The game the move is to be played in
+	 * @param move	The move
+	 * @return		Whether the move is a capture or a promotion
+	 */
+	public static boolean isTactical(Game game, Move move) {
+		Pos origin = move.origin();
+		Pos target = move.target();
+		return game.board[target.x][target.y] != null ||
+				isPromotion(game.board[origin.x][origin.y], target);
+	}
+	
+	static boolean isPromotion(Piece piece, Pos target) {
+		return piece.type == Piece.Type.PAWN && (target.y == 0 || target.y == 7);
+	}
+	
+	/**
+	 * Records that a quiet move caused a beta cutoff, which makes it a
+	 * killer move at the given ply and raises its history score.
+	 * 
+	 * @param game	The game the move was played in, before the move
+	 * @param move	The move that caused the cutoff
+	 * @param ply	The distance from the root of the search
+	 * @param depth	The remaining depth where the cutoff happened
+	 */
+	public void cutoff(Game game, Move move, int ply, int depth) {
+		int m = PackedMove.of(move);
+		if (killers[ply][0] != m) {
+			killers[ply][1] = killers[ply][0];
+			killers[ply][0] = m;
+		}
+		
+		int[] h = history[game.getCurrentColor().ordinal()];
+		h[m] += depth * depth;
+		if (h[m] >= HISTORY_MAX) {
+			for (int[] table : history) {
+				for (int i = 0; i < table.length; i++) {
+					table[i] /= 2;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,323 @@
+package chess;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import chess.Piece.Color;
+
+/**
+ * An efficiently updatable neural network (NNUE) for evaluating positions.
+ * The network has 768 inputs, one for each piece on each square, a hidden
+ * layer of 16-bit integers, and a single output.
+ *
+ * The hidden layer is computed twice, once from the view of each player,
+ * and both are kept in an {@link Accumulator}. Since only a few inputs
+ * change when a move is made, the accumulator is updated by adding and
+ * subtracting the weights of the pieces that were placed and removed,
+ * instead of being computed from scratch. {@link Game} does this from
+ * setPiece, so an accumulator follows the game through moves and undos.
+ * The output layer then takes the accumulator of the player to move
+ * first, clipped to [0, {@link #QA}], and multiplies it with the output
+ * weights.
+ *
+ * The weights are read from a file with {@link #load}, and a network is
+ * never changed afterwards, so one network can be shared by any number
+ * of games and threads. Each game gets its own accumulator, see
+ * {@link Game#setNetwork}.
+ *
+ * The file is big-endian, and holds the int 'CHNN', the int version 1,
+ * the int size of the hidden layer, the input weights as shorts indexed
+ * by input * hidden + neuron, the hidden biases as shorts, the output
+ * weights as shorts (the side to move first), and the output bias as an int.
+ *
+ * @author	Sindre Stephansen
+ * @see		Evaluation
+ * @see		Game#setNetwork
+ */
+public final class NeuralNetwork {
+	/**
+	 * The hidden layer of a network for one game, from the view of both
+	 * players. It must only be used by the game it belongs to.
+	 */
+	public static final class Accumulator {
+		final NeuralNetwork network;
+		final short[] white;
+		final short[] black;
+
+		Accumulator(NeuralNetwork network) {
+			this.network = network;
+			this.white = new short[network.hidden];
+			this.black = new short[network.hidden];
+		}
+
+		/**
+		 * Adds the weights of a piece placed on a square.
+		 */
+		void add(Piece piece, int square) {
+			int h = network.hidden;
+			short[] weights = network.inputWeights;
+			int w = whiteInput(piece, square) * h;
+			int b = blackInput(piece, square) * h;
+
+			for (int i = 0; i < h; i++) {
+				white[i] += weights[w + i];
+			}
+			for (int i = 0; i < h; i++) {
+				black[i] += weights[b + i];
+			}
+		}
+
+		/**
+		 * Subtracts the weights of a piece removed from a square.
+		 */
+		void remove(Piece piece, int square) {
+			int h = network.hidden;
+			short[] weights = network.inputWeights;
+			int w = whiteInput(piece, square) * h;
+			int b = blackInput(piece, square) * h;
+
+			for (int i = 0; i < h; i++) {
+				white[i] -= weights[w + i];
+			}
+			for (int i = 0; i < h; i++) {
+				black[i] -= weights[b + i];
+			}
+		}
+
+		/**
+		 * Computes the accumulator from scratch for the given board.
+		 */
+		void refresh(Piece[][] board) {
+			System.arraycopy(network.biases, 0, white, 0, network.hidden);
+			System.arraycopy(network.biases, 0, black, 0, network.hidden);
+			for (int x = 0; x < 8; x++) {
+				for (int y = 0; y < 8; y++) {
+					if (board[x][y] != null) {
+						add(board[x][y], x + 8*y);
+					}
+				}
+			}
+		}
+
+		void copyFrom(Accumulator other) {
+			System.arraycopy(other.white, 0, white, 0, white.length);
+			System.arraycopy(other.black, 0, black, 0, black.length);
+		}
+
+		boolean matches(Accumulator other) {
+			return Arrays.equals(white, other.white) && Arrays.equals(black, other.black);
+		}
+	}
+
+	/**
+	 * The number of inputs, one per piece per square.
+	 */
+	public static final int INPUTS = 768;
+
+	/**
+	 * The hidden layer is clipped to [0, QA] before the output layer.
+	 */
+	public static final int QA = 255;
+
+	/**
+	 * The scale of the output weights.
+	 */
+	public static final int QB = 64;
+
+	/**
+	 * The output of the network is multiplied by this to get centipawns.
+	 */
+	public static final int SCALE = 400;
+
+	// The output weights must fit in a byte, so the output sum fits in an int
+	private static final int MAX_OUTPUT_WEIGHT = 127;
+
+	private static final int MAGIC = 0x43484E4E;
+	private static final int VERSION = 1;
+
+	/*
+	 * Attributes
+	 */
+
+	final int hidden;
+	final short[] inputWeights;
+	final short[] biases;
+	final short[] outputWeights;
+	final int outputBias;
+
+	/*
+	 * Constructors
+	 */
+
+	private NeuralNetwork(int hidden, short[] inputWeights, short[] biases, short[] outputWeights, int outputBias) {
+		this.hidden = hidden;
+		this.inputWeights = inputWeights;
+		this.biases = biases;
+		this.outputWeights = outputWeights;
+		this.outputBias = outputBias;
+	}
+
+	/*
+	 * Utility methods
+	 */
+
+	// The input of a piece on a square, from white's view
+	static int whiteInput(Piece piece, int square) {
+		return Zobrist.index(piece) * 64 + square;
+	}
+
+	// The input of a piece on a square, from black's view: the board is
+	// flipped, and black's pieces come first
+	static int blackInput(Piece piece, int square) {
+		int index = piece.type.ordinal() + 6 * (1 - piece.color.ordinal());
+		return index * 64 + (square ^ 56);
+	}
+
+	// The output layer, for the hidden layers of the player to move and the other player
+	private int output(short[] us, short[] them) {
+		int h = hidden;
+		int sum = 0;
+
+		for (int i = 0; i < h; i++) {
+			sum += Math.min(Math.max(us[i], 0), QA) * outputWeights[i];
+		}
+		for (int i = 0; i < h; i++) {
+			sum += Math.min(Math.max(them[i], 0), QA) * outputWeights[h + i];
+		}
+
+		return (int) ((sum + (long) outputBias) * SCALE / (QA * QB));
+	}
+
+	/*
+	 * Public methods
+	 */
+
+	/**
+	 * Reads a network from a file, in the format described above.
+	 *
+	 * @param filename	The file to read
+	 * @return			The network
+	 * @throws			IOException	If the file can't be read
+	 * @throws			IllegalArgumentException	If the file isn't a valid network
+	 */
+	public static NeuralNetwork load(String filename) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(filename)));
+
+		try {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IllegalArgumentException("Incompatible file version.");
+			}
+
+			int hidden = in.readInt();
+			if (hidden <= 0 || hidden > 4096) {
+				throw new IllegalArgumentException("Invalid hidden layer size: " + hidden);
+			}
+
+			short[] inputWeights = new short[INPUTS * hidden];
+			short[] biases = new short[hidden];
+			short[] outputWeights = new short[2 * hidden];
+			for (int i = 0; i < inputWeights.length; i++) {
+				inputWeights[i] = in.readShort();
+			}
+			for (int i = 0; i < biases.length; i++) {
+				biases[i] = in.readShort();
+			}
+			for (int i = 0; i < outputWeights.length; i++) {
+				outputWeights[i] = in.readShort();
+				if (Math.abs(outputWeights[i]) > MAX_OUTPUT_WEIGHT) {
+					throw new IllegalArgumentException("Output weight out of range: " + outputWeights[i]);
+				}
+			}
+			int outputBias = in.readInt();
+
+			return new NeuralNetwork(hidden, inputWeights, biases, outputWeights, outputBias);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Writes the network to a file, in the format read by {@link #load}.
+	 *
+	 * @param filename	The file to write
+	 * @throws			IOException	If the file can't be written
+	 */
+	public void save(String filename) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename)));
+
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(hidden);
+			for (short weight : inputWeights) {
+				out.writeShort(weight);
+			}
+			for (short bias : biases) {
+				out.writeShort(bias);
+			}
+			for (short weight : outputWeights) {
+				out.writeShort(weight);
+			}
+			out.writeInt(outputBias);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Creates a network with small random weights. It plays badly, but
+	 * can be used to measure the speed of the network, or as a starting
+	 * point for training.
+	 *
+	 * @param hidden	The size of the hidden layer
+	 * @param seed		The seed for the weights
+	 * @return			The network
+	 */
+	public static NeuralNetwork random(int hidden, long seed) {
+		Random random = new Random(seed);
+		short[] inputWeights = new short[INPUTS * hidden];
+		short[] biases = new short[hidden];
+		short[] outputWeights = new short[2 * hidden];
+
+		for (int i = 0; i < inputWeights.length; i++) {
+			inputWeights[i] = (short) (random.nextInt(65) - 32);
+		}
+		for (int i = 0; i < outputWeights.length; i++) {
+			outputWeights[i] = (short) (random.nextInt(2 * MAX_OUTPUT_WEIGHT + 1) - MAX_OUTPUT_WEIGHT);
+		}
+
+		return new NeuralNetwork(hidden, inputWeights, biases, outputWeights, 0);
+	}
+
+	/**
+	 * Returns the size of the hidden layer.
+	 *
+	 * @return	The number of hidden neurons per player
+	 */
+	public int hidden() {
+		return hidden;
+	}
+
+	/**
+	 * Evaluates a position from its accumulator, from the point of view
+	 * of the player to move.
+	 *
+	 * @param accumulator	The accumulator of the position
+	 * @param color			The player to move
+	 * @return				The score of the position in centipawns
+	 */
+	public int evaluate(Accumulator accumulator, Color color) {
+		if (color == Color.WHITE) {
+			return output(accumulator.white, accumulator.black);
+		} else {
+			return output(accumulator.black, accumulator.white);
+		}
+	}
+}
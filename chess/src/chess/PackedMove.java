@@ -0,0 +1,183 @@
+package chess;
+
+/**
+ * Helper methods for storing a move as a single int. This is used where
+ * a large number of moves must be kept around, and a {@link Move} object
+ * per move would be too expensive, for example in {@link GameTree}.
+ *
+ * Squares are numbered from 0 to 63, going left to right, bottom to top,
+ * so square 0 is the bottom left corner and square 63 is the top right
+ * corner, matching the layout of the board in {@link Game}. The origin
+ * square is stored in the lowest six bits, and the target square in the
+ * next six bits.
+ *
+ * @author	Sindre Stephansen
+ * @see		Move
+ * @see		GameTree
+ */
+public final class PackedMove {
+	/**
+	 * A value that never represents a move.
+	 */
+	public static final int NONE = -1;
+
+	/**
+	 * The positions of the squares, by square index, so moves can be
+	 * made without allocating positions.
+	 */
+	static final Pos[] SQUARES = new Pos[64];
+
+	static {
+		for (int i = 0; i < 64; i++) {
+			SQUARES[i] = new Pos(i % 8, i / 8);
+		}
+	}
+
+	private PackedMove() {}
+
+	/**
+	 * Returns the square index of the given position.
+	 *
+	 * @param pos	The position
+	 * @return		The square index, between 0 and 63
+	 */
+	public static int square(Pos pos) {
+		return pos.x + 8*pos.y;
+	}
+
+	/**
+	 * Packs the given origin and target squares into a move.
+	 *
+	 * @param from	The origin square, between 0 and 63
+	 * @param to	The target square, between 0 and 63
+	 * @return		The packed move
+	 */
+	public static int of(int from, int to) {
+		return from | (to << 6);
+	}
+
+	/**
+	 * Packs the given origin and target positions into a move.
+	 *
+	 * @param from	The origin position
+	 * @param to	The target position
+	 * @return		The packed move
+	 */
+	public static int of(Pos from, Pos to) {
+		return of(square(from), square(to));
+	}
+
+	/**
+	 * Packs a move object.
+	 *
+	 * @param move	The move to pack
+	 * @return		The packed move
+	 */
+	public static int of(Move move) {
+		return of(move.origin(), move.target());
+	}
+
+	/**
+	 * Returns the origin square of a packed move.
+	 *
+	 * @param move	The packed move
+	 * @return		The origin square, between 0 and 63
+	 */
+	public static int from(int move) {
+		return move & 63;
+	}
+
+	/**
+	 * Returns the target square of a packed move.
+	 *
+	 * @param move	The packed move
+	 * @return		The target square, between 0 and 63
+	 */
+	public static int to(int move) {
+		return (move >>> 6) & 63;
+	}
+
+	/**
+	 * Finds the legal move in the given game that matches the packed move.
+	 * Returns null if the move isn't legal in the current position.
+	 *
+	 * @param game	The game to find the move in
+	 * @param move	The packed move
+	 * @return		The matching move, or null if there is none
+	 * @see			Game#validMoves
+	 */
+	public static Move toMove(Game game, int move) {
+		if (move == NONE) {
+			return null;
+		}
+
+		int from = from(move);
+		int to = to(move);
+		if (!game.isLegal(from, to)) {
+			return null;
+		}
+
+		return new Move(new Pos[][] {{SQUARES[from], SQUARES[to]}}, game.getTurn());
+	}
+
+	/**
+	 * Returns the move in coordinate notation, for example 'e2e4'.
+	 *
+	 * @param move	The packed move
+	 * @return		The move in coordinate notation
+	 */
+	public static String toString(int move) {
+		if (move == NONE) {
+			return "none";
+		}
+
+		return squareName(from(move)) + squareName(to(move));
+	}
+
+	/**
+	 * Parses a move in coordinate notation, for example 'e2e4'.
+	 *
+	 * @param text	The move in coordinate notation
+	 * @return		The packed move
+	 * @throws		IllegalArgumentException	If the text isn't a valid move
+	 */
+	public static int parse(String text) {
+		if (text.length() < 4) {
+			throw new IllegalArgumentException("Invalid move: " + text);
+		}
+
+		return of(parseSquare(text.substring(0, 2)), parseSquare(text.substring(2, 4)));
+	}
+
+	/**
+	 * Returns the name of a square, for example 'e4'.
+	 *
+	 * @param square	The square index, between 0 and 63
+	 * @return			The name of the square
+	 */
+	public static String squareName(int square) {
+		return "" + (char) ('a' + square % 8) + (char) ('1' + square / 8);
+	}
+
+	/**
+	 * Parses the name of a square, for example 'e4'.
+	 *
+	 * @param name	The name of the square
+	 * @return		The square index, between 0 and 63
+	 * @throws		IllegalArgumentException	If the name isn't a valid square
+	 */
+	public static int parseSquare(String name) {
+		if (name.length() != 2) {
+			throw new IllegalArgumentException("Invalid square: " + name);
+		}
+
+		int x = name.charAt(0) - 'a';
+		int y = name.charAt(1) - '1';
+
+		if (x < 0 || x > 7 || y < 0 || y > 7) {
+			throw new IllegalArgumentException("Invalid square: " + name);
+		}
+
+		return x + 8*y;
+	}
+}
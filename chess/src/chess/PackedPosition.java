@@ -0,0 +1,289 @@
+package chess;
+
+import java.nio.ByteBuffer;
+
+import chess.Piece.Color;
+import chess.Piece.Type;
+
+/**
+ * A position packed into three longs, 24 bytes, for holding millions of
+ * positions in memory, where a {@link Game} would take kilobytes each.
+ * Only the pieces on the board and the player to move are kept, so two
+ * games in the same position always pack to the same longs, whatever
+ * moves led there. The longs are:
+ * <ol>
+ * <li>A mask of the occupied squares, with bit n set if there is a piece
+ * on square n, numbered from 0 to 63 like in {@link PackedMove}.</li>
+ * <li>The 4-bit codes of the first 16 pieces, in the order of their
+ * squares, the first piece in the lowest bits.</li>
+ * <li>The codes of the next 16 pieces. Unused codes are 0.</li>
+ * </ol>
+ * The code of a piece is {@link Zobrist#index}, from 0 to 11, except the
+ * king of the player to move, which is 12 if white is to move and 13 if
+ * black is to move. This keeps the player to move without a fourth long,
+ * but means that the player to move must have a king, and that there can
+ * be no more than 32 pieces on the board.
+ *
+ * Besides the objects of this class, the static methods pack and unpack
+ * positions at any offset of a long array, without allocating, which is
+ * how {@link PositionSet} and {@link PositionMap} store them. Positions
+ * can also be unpacked from a buffer, see {@link PositionStore}.
+ *
+ * @author	Sindre Stephansen
+ * @see		PositionSet
+ * @see		PositionMap
+ * @see		PositionStore
+ */
+public final class PackedPosition {
+	/**
+	 * The number of longs of a packed position.
+	 */
+	public static final int LONGS = 3;
+
+	// The codes of the king of the player to move
+	private static final int WHITE_TO_MOVE = 12;
+	private static final int BLACK_TO_MOVE = 13;
+
+	/*
+	 * Attributes
+	 */
+
+	final long[] data = new long[LONGS];
+
+	/*
+	 * Constructors
+	 */
+
+	/**
+	 * Class constructor. Packs the current position of a game.
+	 *
+	 * @param game	The game
+	 * @throws		IllegalArgumentException	If the player to move has no king,
+	 * 				or there are more than 32 pieces
+	 */
+	public PackedPosition(Game game) {
+		pack(game, data, 0);
+	}
+
+	/**
+	 * Class constructor. Copies a packed position from an array.
+	 *
+	 * @param data		The array
+	 * @param offset	The index of the first long of the position
+	 */
+	public PackedPosition(long[] data, int offset) {
+		System.arraycopy(data, offset, this.data, 0, LONGS);
+	}
+
+	/*
+	 * Inherited methods
+	 */
+
+	@Override
+	public boolean equals(Object other) {
+		return other instanceof PackedPosition && equals(data, 0, ((PackedPosition) other).data, 0);
+	}
+
+	@Override
+	public int hashCode() {
+		return hash(data, 0);
+	}
+
+	/**
+	 * Returns the position in FEN.
+	 *
+	 * @return	The position in FEN
+	 */
+	@Override
+	public String toString() {
+		return Fen.toString(toGame());
+	}
+
+	/*
+	 * Public methods
+	 */
+
+	/**
+	 * Sets up this position in a game. The history of the game is cleared.
+	 *
+	 * @param game	The game to set up
+	 */
+	public void load(Game game) {
+		unpack(data, 0, game);
+	}
+
+	/**
+	 * Creates a new game in this position.
+	 *
+	 * @return	The game
+	 */
+	public Game toGame() {
+		Game game = new Game();
+		load(game);
+		return game;
+	}
+
+	/**
+	 * Copies the longs of this position into an array.
+	 *
+	 * @param out		The array
+	 * @param offset	The index to copy the first long to
+	 */
+	public void copyTo(long[] out, int offset) {
+		System.arraycopy(data, 0, out, offset, LONGS);
+	}
+
+	/**
+	 * Returns the number of pieces on the board.
+	 *
+	 * @return	The number of pieces
+	 */
+	public int pieceCount() {
+		return Long.bitCount(data[0]);
+	}
+
+	/**
+	 * Packs the current position of a game into an array. Nothing is allocated.
+	 *
+	 * @param game		The game
+	 * @param out		The array to pack into
+	 * @param offset	The index of the first long to write
+	 * @throws			IllegalArgumentException	If the player to move has no king,
+	 * 					or there are more than 32 pieces
+	 */
+	public static void pack(Game game, long[] out, int offset) {
+		Color color = game.getCurrentColor();
+		long occupancy = 0;
+		long low = 0;
+		long high = 0;
+		int count = 0;
+		boolean king = false;
+
+		for (int square = 0; square < 64; square++) {
+			Piece piece = game.board[square % 8][square / 8];
+			if (piece == null) {
+				continue;
+			}
+			if (count == 32) {
+				throw new IllegalArgumentException("More than 32 pieces on the board");
+			}
+
+			long code = Zobrist.index(piece);
+			if (piece.type == Type.KING && piece.color == color && !king) {
+				code = color == Color.WHITE ? WHITE_TO_MOVE : BLACK_TO_MOVE;
+				king = true;
+			}
+
+			occupancy |= 1L << square;
+			if (count < 16) {
+				low |= code << (count * 4);
+			} else {
+				high |= code << ((count - 16) * 4);
+			}
+			count++;
+		}
+
+		if (!king) {
+			throw new IllegalArgumentException("The player to move has no king");
+		}
+
+		out[offset] = occupancy;
+		out[offset + 1] = low;
+		out[offset + 2] = high;
+	}
+
+	/**
+	 * Sets up a packed position in a game. The history of the game is
+	 * cleared, and the turn is set to 0 or 1, for the player to move.
+	 *
+	 * @param in		The array to unpack from
+	 * @param offset	The index of the first long of the position
+	 * @param game		The game to set up
+	 * @throws			IllegalArgumentException	If the longs aren't a packed position
+	 */
+	public static void unpack(long[] in, int offset, Game game) {
+		unpack(in[offset], in[offset + 1], in[offset + 2], game);
+	}
+
+	/**
+	 * Sets up a packed position in a game, from three longs at an offset
+	 * of a buffer, see {@link #unpack(long[], int, Game)}.
+	 *
+	 * @param in		The buffer to unpack from
+	 * @param offset	The offset in bytes of the first long of the position
+	 * @param game		The game to set up
+	 * @throws			IllegalArgumentException	If the longs aren't a packed position
+	 */
+	public static void unpack(ByteBuffer in, int offset, Game game) {
+		unpack(in.getLong(offset), in.getLong(offset + 8), in.getLong(offset + 16), game);
+	}
+
+	private static void unpack(long occupancy, long low, long high, Game game) {
+		int turn = -1;
+		int count = 0;
+
+		for (int square = 0; square < 64; square++) {
+			Piece piece = null;
+			if ((occupancy & 1L << square) != 0) {
+				long codes = count < 16 ? low : high;
+				int code = (int) (codes >>> (count % 16 * 4)) & 15;
+				count++;
+
+				if (code == WHITE_TO_MOVE || code == BLACK_TO_MOVE) {
+					if (turn >= 0) {
+						throw new IllegalArgumentException("Two kings of the player to move");
+					}
+					turn = code - WHITE_TO_MOVE;
+					piece = turn == 0 ? Game.WHITE[Type.KING.ordinal()] : Game.BLACK[Type.KING.ordinal()];
+				} else if (code > 11) {
+					throw new IllegalArgumentException("Invalid piece code: " + code);
+				} else if (code > 5) {
+					piece = Game.BLACK[code - 6];
+				} else {
+					piece = Game.WHITE[code];
+				}
+			}
+			game.board[square % 8][square / 8] = piece;
+		}
+
+		if (turn < 0) {
+			throw new IllegalArgumentException("The player to move has no king");
+		}
+
+		game.turn = turn;
+		game.captureStack.clear();
+		game.undoStack.clear();
+		game.redoStack.clear();
+		game.promotionStack.clear();
+		game.refresh();
+	}
+
+	/**
+	 * Returns the hash code of a packed position in an array. The longs
+	 * are mixed well, so the low bits can be used directly as an index
+	 * into a table.
+	 *
+	 * @param in		The array
+	 * @param offset	The index of the first long of the position
+	 * @return			The hash code
+	 */
+	public static int hash(long[] in, int offset) {
+		long h = in[offset] * 0x9E3779B97F4A7C15L;
+		h = (h ^ in[offset + 1] ^ h >>> 29) * 0xBF58476D1CE4E5B9L;
+		h = (h ^ in[offset + 2] ^ h >>> 32) * 0x94D049BB133111EBL;
+		return (int) (h ^ h >>> 31 ^ h >>> 62);
+	}
+
+	/**
+	 * Determines whether two packed positions in arrays are the same.
+	 *
+	 * @param a			The first array
+	 * @param aOffset	The index of the first long of the first position
+	 * @param b			The second array
+	 * @param bOffset	The index of the first long of the second position
+	 * @return			Whether the positions are the same
+	 */
+	public static boolean equals(long[] a, int aOffset, long[] b, int bOffset) {
+		return a[aOffset] == b[bOffset] && a[aOffset + 1] == b[bOffset + 1] && a[aOffset + 2] == b[bOffset + 2];
+	}
+}
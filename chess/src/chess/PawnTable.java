@@ -0,0 +1,198 @@
+package chess;
+
+import chess.Piece.Color;
+import chess.Piece.Type;
+
+/**
+ * Scores the pawn structure of a position, and caches the scores by the
+ * pawn key of the position (see {@link Game#getPawnKey}). Doubled,
+ * isolated and backward pawns are penalized, and passed pawns get a bonus
+ * that grows as they advance. The pawns change far less often than the
+ * rest of the position, so nearly every lookup during a search is a hit.
+ *
+ * Each thread has its own cache, so it can be used by parallel searches
+ * without locking. Hits and misses are counted in {@link Metrics}.
+ *
+ * @author	Sindre Stephansen
+ * @see		Evaluation
+ */
+public final class PawnTable {
+	/**
+	 * The number of entries in the cache of each thread.
+	 */
+	public static final int SIZE = 1 << 14;
+
+	// Penalties and bonuses as {midgame, endgame}
+	private static final int[] DOUBLED = {-10, -25};
+	private static final int[] ISOLATED = {-10, -15};
+	private static final int[] BACKWARD = {-8, -10};
+
+	// Bonus for a passed pawn by how far it has come, from its own side
+	private static final int[] PASSED_MIDGAME = {0, 0, 5, 10, 20, 35, 60, 0};
+	private static final int[] PASSED_ENDGAME = {0, 10, 15, 25, 45, 75, 120, 0};
+
+	private static final long FILE_A = 0x0101010101010101L;
+
+	/*
+	 * Attributes
+	 */
+
+	private final long[] keys = new long[SIZE];
+	private final long[] scores = new long[SIZE];
+
+	private static final ThreadLocal<PawnTable> tables = new ThreadLocal<PawnTable>() {
+		@Override
+		protected PawnTable initialValue() {
+			return new PawnTable();
+		}
+	};
+
+	private PawnTable() {}
+
+	/*
+	 * Utility methods
+	 */
+
+	private static long pack(int midgame, int endgame) {
+		return ((long) midgame << 32) | (endgame & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Returns the midgame part of a packed score.
+	 *
+	 * @param score	The packed score from {@link #probe} or {@link #evaluate}
+	 * @return		The midgame score, from white's view
+	 */
+	static int midgame(long score) {
+		return (int) (score >> 32);
+	}
+
+	/**
+	 * Returns the endgame part of a packed score.
+	 *
+	 * @param score	The packed score from {@link #probe} or {@link #evaluate}
+	 * @return		The endgame score, from white's view
+	 */
+	static int endgame(long score) {
+		return (int) score;
+	}
+
+	// The files next to the given files
+	private static long adjacent(long files) {
+		return ((files << 1) & ~FILE_A) | ((files >>> 1) & ~(FILE_A << 7));
+	}
+
+	// The squares on the given rank and all ranks in front of it,
+	// seen from white if up is true, and from black otherwise
+	private static long ahead(int y, boolean up) {
+		return up ? -1L << (8*y) : -1L >>> (8*(7 - y));
+	}
+
+	// Scores the pawns of one side, from that side's view
+	private static long score(long own, long enemy, boolean white) {
+		int midgame = 0;
+		int endgame = 0;
+
+		// The squares attacked by the enemy pawns
+		long enemyAttacks = white ?
+				((enemy >>> 7) & ~FILE_A) | ((enemy >>> 9) & ~(FILE_A << 7)) :
+				((enemy << 7) & ~(FILE_A << 7)) | ((enemy << 9) & ~FILE_A);
+
+		long pawns = own;
+		while (pawns != 0) {
+			int square = Long.numberOfTrailingZeros(pawns);
+			pawns &= pawns - 1;
+
+			int x = square % 8;
+			int y = square / 8;
+			long file = FILE_A << x;
+			long neighbours = adjacent(file);
+			int forward = white ? 1 : -1;
+			int rank = white ? y : 7 - y;
+
+			// A pawn can't stand on the last rank, it would have been promoted
+			if (rank == 7) {
+				continue;
+			}
+
+			// Each pawn with another one in front of it on the same file is doubled
+			if ((own & file & ~(1L << square) & ahead(y, white)) != 0) {
+				midgame += DOUBLED[0];
+				endgame += DOUBLED[1];
+			}
+
+			if ((own & neighbours) == 0) {
+				midgame += ISOLATED[0];
+				endgame += ISOLATED[1];
+			} else if ((own & neighbours & ahead(y, !white)) == 0 &&
+					(enemyAttacks & (1L << (square + 8*forward))) != 0) {
+				// No pawn beside or behind it can defend it, and it can't
+				// advance without being taken
+				midgame += BACKWARD[0];
+				endgame += BACKWARD[1];
+			}
+
+			if ((enemy & (file | neighbours) & ahead(y + forward, white)) == 0) {
+				midgame += PASSED_MIDGAME[rank];
+				endgame += PASSED_ENDGAME[rank];
+			}
+		}
+
+		return pack(midgame, endgame);
+	}
+
+	/*
+	 * Public methods
+	 */
+
+	/**
+	 * Scores the pawn structure of a game from scratch, without the cache.
+	 *
+	 * @param game	The game to score
+	 * @return		The packed midgame and endgame scores, from white's view
+	 */
+	static long evaluate(Game game) {
+		long white = 0;
+		long black = 0;
+		for (int x = 0; x < 8; x++) {
+			for (int y = 0; y < 8; y++) {
+				Piece piece = game.board[x][y];
+				if (piece != null && piece.type == Type.PAWN) {
+					if (piece.color == Color.WHITE) {
+						white |= 1L << (x + 8*y);
+					} else {
+						black |= 1L << (x + 8*y);
+					}
+				}
+			}
+		}
+
+		long w = score(white, black, true);
+		long b = score(black, white, false);
+		return pack(midgame(w) - midgame(b), endgame(w) - endgame(b));
+	}
+
+	/**
+	 * Returns the score of the pawn structure of a game, from the cache
+	 * of the current thread if it is there.
+	 *
+	 * @param game	The game to score
+	 * @return		The packed midgame and endgame scores, from white's view
+	 */
+	static long probe(Game game) {
+		PawnTable table = tables.get();
+		long key = game.pawnKey;
+		int index = (int) key & (SIZE - 1);
+
+		if (table.keys[index] == key) {
+			Metrics.count(Metrics.PAWN_HITS);
+			return table.scores[index];
+		}
+
+		Metrics.count(Metrics.PAWN_MISSES);
+		long score = evaluate(game);
+		table.keys[index] = key;
+		table.scores[index] = score;
+		return score;
+	}
+}
@@ -0,0 +1,35 @@
+package chess;
+
+/**
+ * Something that can choose moves in a game, like a search engine
+ * or a random mover.
+ * 
+ * @author	Sindre Stephansen
+ * @see		RandomPlayer
+ * @see		SearchPlayer
+ * @see		Tournament
+ */
+public interface Player {
+	/**
+	 * Chooses a move for the player whose turn it is. The game must
+	 * be in the same position when the method returns.
+	 * 
+	 * @param game	The game to choose a move in
+	 * @return		The chosen move, or null if there are no legal moves
+	 */
+	public Move chooseMove(Game game);
+	
+	/**
+	 * Returns the number of positions searched by this player so far.
+	 * 
+	 * @return	The number of nodes searched
+	 */
+	public long nodes();
+	
+	/**
+	 * Returns the time spent choosing moves by this player so far.
+	 * 
+	 * @return	The time spent, in nanoseconds
+	 */
+	public long time();
+}
@@ -0,0 +1,296 @@
+package chess;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A searching player that keeps thinking while the opponent is to move.
+ * After choosing a move it guesses the reply, from the principal variation
+ * of its search, and starts searching the position after that reply on a
+ * background thread.
+ *
+ * If the opponent plays the expected reply (a ponder hit), the search that
+ * is already running is simply allowed to finish, with the time limit now
+ * counted from when the reply was made, so the time spent pondering is
+ * gained. If the opponent plays something else (a ponder miss), the search
+ * is stopped right away, and a new search is started. Both searches use the
+ * same transposition table, so even the work of a miss is partly reused.
+ *
+ * {@link #close} must be called when the player is no longer used, to
+ * stop pondering. It can be called from another thread while
+ * {@link #chooseMove} is running, and then stops that search as well.
+ *
+ * @author	Sindre Stephansen
+ * @see		SearchPlayer
+ * @see		Search
+ */
+public class PonderingPlayer implements Player {
+	// How often a stopping search is reminded to stop, in milliseconds
+	private static final long POLL_INTERVAL = 1;
+
+	private final int depth;
+	private final long millis;
+	private final Game scratch = new Game();
+	private final Search search = new Search(scratch);
+	private final ExecutorService executor;
+
+	// Held by chooseMove and close, so they don't use the search and the
+	// background thread at the same time
+	private final ReentrantLock lock = new ReentrantLock();
+	private volatile boolean closed = false;
+
+	// The search running in the background, and the key of its position
+	private Future<Move> pondering = null;
+	private long ponderKey;
+
+	private long nodes = 0;
+	private long time = 0;
+	private long hits = 0;
+	private long misses = 0;
+
+	/**
+	 * Class constructor.
+	 *
+	 * @param depth		The maximum depth to search, in plies
+	 * @param millis	The time to search each move for, in milliseconds, or 0 for no limit
+	 */
+	public PonderingPlayer(int depth, long millis) {
+		this.depth = depth;
+		this.millis = millis;
+		this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "chess-ponder");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Class constructor, for a player that evaluates positions with
+	 * a neural network.
+	 *
+	 * @param depth		The maximum depth to search, in plies
+	 * @param millis	The time to search each move for, in milliseconds, or 0 for no limit
+	 * @param network	The network to evaluate with, or null to use the piece-square tables
+	 * @see				Game#setNetwork
+	 */
+	public PonderingPlayer(int depth, long millis, NeuralNetwork network) {
+		this(depth, millis);
+		scratch.setNetwork(network);
+	}
+
+	/*
+	 * Utility methods
+	 */
+
+	// Waits for the background search to finish. Since the search resets
+	// its limits when it starts, the limit is set again until it is done,
+	// in case the search hadn't started yet.
+	private Move await(boolean stop, long deadline) {
+		Future<Move> future = pondering;
+		pondering = null;
+
+		while (true) {
+			if (stop) {
+				search.stop();
+			} else if (deadline != 0) {
+				search.setDeadline(deadline);
+			}
+
+			try {
+				return future.get(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+			} catch (TimeoutException e) {
+				continue;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				search.stop();
+				return null;
+			} catch (ExecutionException e) {
+				throw new IllegalStateException("Pondering failed", e.getCause());
+			}
+		}
+	}
+
+	// Starts searching the position after the given move and the expected reply
+	private void ponder(Game game, Move move) {
+		int[] pv = search.pv();
+		if (pv.length < 2 || closed) {
+			return;
+		}
+
+		scratch.copyFrom(game);
+		scratch.move(move);
+		Move reply = PackedMove.toMove(scratch, pv[1]);
+		if (reply == null) {
+			return;
+		}
+		scratch.move(reply);
+		ponderKey = scratch.getKey();
+
+		pondering = executor.submit(new Callable<Move>() {
+			public Move call() {
+				// Without a time limit until the reply is known
+				return search.search(depth, 0);
+			}
+		});
+	}
+
+	// Chooses a move while holding the lock
+	private Move choose(Game game) {
+		long start = System.nanoTime();
+		Move move = null;
+		boolean searched = false;
+
+		if (pondering != null) {
+			if (game.getKey() == ponderKey) {
+				hits++;
+				long deadline = millis > 0 ? System.currentTimeMillis() + millis : 0;
+				move = await(false, deadline);
+				searched = true;
+			} else {
+				misses++;
+				await(true, 0);
+			}
+		}
+
+		if (!searched) {
+			scratch.copyFrom(game);
+			move = search.search(depth, millis);
+		}
+
+		time += System.nanoTime() - start;
+		nodes += search.nodes();
+
+		if (move != null) {
+			// The move was found on the scratch game, so find the same
+			// move in the real game
+			move = PackedMove.toMove(game, PackedMove.of(move));
+			if (move != null) {
+				ponder(game, move);
+			}
+		}
+
+		return move;
+	}
+
+	/*
+	 * Public methods
+	 */
+
+	/**
+	 * Chooses a move, and starts pondering on the expected reply.
+	 *
+	 * @param game	The game to choose a move in
+	 * @return		The chosen move, or null if there are no legal moves
+	 * @throws		IllegalStateException	If the player has been closed
+	 */
+	public Move chooseMove(Game game) {
+		lock.lock();
+		try {
+			if (closed) {
+				throw new IllegalStateException("The player has been closed");
+			}
+			return choose(game);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Stops pondering, and shuts down the background thread. A search
+	 * running in {@link #chooseMove} on another thread is stopped, and
+	 * waited for. The player can't be used after this.
+	 */
+	public void close() {
+		closed = true;
+
+		// The search resets its limits when it starts, so it is reminded
+		// to stop until chooseMove has returned
+		boolean interrupted = false;
+		while (true) {
+			search.stop();
+			try {
+				if (lock.tryLock(POLL_INTERVAL, TimeUnit.MILLISECONDS)) {
+					break;
+				}
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+
+		try {
+			if (pondering != null) {
+				await(true, 0);
+			}
+			executor.shutdown();
+		} finally {
+			lock.unlock();
+		}
+
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Returns the number of times the opponent played the expected reply.
+	 *
+	 * @return	The number of ponder hits
+	 */
+	public long hits() {
+		return hits;
+	}
+
+	/**
+	 * Returns the number of times the opponent played something else than
+	 * the expected reply.
+	 *
+	 * @return	The number of ponder misses
+	 */
+	public long misses() {
+		return misses;
+	}
+
+	/**
+	 * Returns the search used by this player, which holds the details of
+	 * the last search. It must not be used while the player is pondering.
+	 *
+	 * @return	The search used by this player
+	 */
+	public Search getSearch() {
+		return search;
+	}
+
+	/**
+	 * Returns the number of positions searched so far, including the
+	 * positions searched while pondering on a ponder hit.
+	 */
+	public long nodes() {
+		return nodes;
+	}
+
+	/**
+	 * Returns the time spent in {@link #chooseMove} so far. The time spent
+	 * pondering isn't included.
+	 */
+	public long time() {
+		return time;
+	}
+
+	@Override
+	public String toString() {
+		if (millis > 0) {
+			return "ponder:time:" + millis;
+		}
+		return "ponder:depth:" + depth;
+	}
+}
@@ -0,0 +1,608 @@
+package chess;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * An index of every position reached in an archive of games, for finding
+ * the games that reached a position, and the moves that were played from it.
+ *
+ * The archive is a text file with one game per line, on the form
+ * 'id move move ...', with the moves in coordinate notation from the
+ * starting position, as written by the -archive option of
+ * {@link Tournament}. Empty lines and lines starting with '#' are skipped.
+ *
+ * The index is built by replaying the games on a thread pool, and is
+ * written to a file as a sorted array of entries, one per position in
+ * each game. The file is memory-mapped when it is opened, so it is never
+ * read into the heap, and a query is a binary search for the key of the
+ * position followed by a scan over its entries, which touches only a few
+ * pages of the file.
+ *
+ * The file is big-endian, and holds the int 'CHPI', the int version 1,
+ * the long number of entries, the int number of games and an unused int,
+ * followed by the entries. Each entry is 16 bytes: the long Zobrist key
+ * of the position, the int id of the game, and the int move played from
+ * the position as a {@link PackedMove}, or {@link PackedMove#NONE} if
+ * the game ended there. The entries are sorted by key, compared as
+ * unsigned numbers, and then by game id.
+ *
+ * @author	Sindre Stephansen
+ * @see		Tournament
+ * @see		Zobrist
+ */
+public final class PositionIndex implements Closeable {
+	/**
+	 * The games that reached a position, and the moves played from it.
+	 */
+	public static final class Result {
+		/**
+		 * The number of times the position was reached, counting a game
+		 * once for every time it reached the position.
+		 */
+		public final long positions;
+
+		/**
+		 * The number of games that ended in the position.
+		 */
+		public final long ended;
+
+		private final int[] games;
+		private final int[] moves;
+		private final int[] counts;
+
+		Result(long positions, long ended, int[] games, int[] moves, int[] counts) {
+			this.positions = positions;
+			this.ended = ended;
+			this.games = games;
+			this.moves = moves;
+			this.counts = counts;
+		}
+
+		/**
+		 * Returns the ids of the games that reached the position.
+		 *
+		 * @return	The game ids, in increasing order, without duplicates
+		 */
+		public int[] games() {
+			return games.clone();
+		}
+
+		/**
+		 * Returns the moves played from the position, the most common first.
+		 *
+		 * @return	The moves, as packed moves
+		 * @see		PackedMove
+		 * @see		#counts
+		 */
+		public int[] moves() {
+			return moves.clone();
+		}
+
+		/**
+		 * Returns the number of times each move was played from the position.
+		 *
+		 * @return	The counts, in the same order as {@link #moves}
+		 */
+		public int[] counts() {
+			return counts.clone();
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder builder = new StringBuilder();
+			builder.append(games.length).append(" games, ").append(positions).append(" positions");
+			for (int i = 0; i < moves.length; i++) {
+				builder.append('\n').append(PackedMove.toString(moves[i])).append(' ').append(counts[i]);
+			}
+			if (ended > 0) {
+				builder.append("\nended ").append(ended);
+			}
+			return builder.toString();
+		}
+	}
+
+	// The entries of one part of the archive, kept as two parallel
+	// arrays, with the game id and the move packed into the value
+	private static final class Run {
+		long[] keys = new long[1024];
+		long[] values = new long[1024];
+		int size = 0;
+		int next = 0;
+
+		void add(long key, int game, int move) {
+			if (size == keys.length) {
+				keys = Arrays.copyOf(keys, size * 2);
+				values = Arrays.copyOf(values, size * 2);
+			}
+			keys[size] = key;
+			values[size] = ((long) game << 32) | (move & 0xFFFFFFFFL);
+			size++;
+		}
+
+		// Sorts the entries by key, and then by game id, with a radix
+		// sort, since the arrays are too large to sort as objects
+		void sort() {
+			long[] keyTemp = new long[size];
+			long[] valueTemp = new long[size];
+			int[] count = new int[1 << RADIX_BITS];
+
+			// Least significant digit first, so the game id goes first
+			for (int pass = 0; pass < 6; pass++) {
+				boolean byKey = pass >= 2;
+				int shift = byKey ? (pass - 2) * RADIX_BITS : 32 + pass * RADIX_BITS;
+				long[] digits = byKey ? keys : values;
+
+				Arrays.fill(count, 0);
+				for (int i = 0; i < size; i++) {
+					count[(int) (digits[i] >>> shift) & RADIX_MASK]++;
+				}
+				for (int i = 0, sum = 0; i < count.length; i++) {
+					int c = count[i];
+					count[i] = sum;
+					sum += c;
+				}
+				for (int i = 0; i < size; i++) {
+					int j = count[(int) (digits[i] >>> shift) & RADIX_MASK]++;
+					keyTemp[j] = keys[i];
+					valueTemp[j] = values[i];
+				}
+
+				long[] tmp = keys;
+				keys = keyTemp;
+				keyTemp = tmp;
+				tmp = values;
+				values = valueTemp;
+				valueTemp = tmp;
+			}
+		}
+	}
+
+	private static final int MAGIC = 0x43485049;
+	private static final int VERSION = 1;
+	private static final int HEADER = 24;
+	private static final int ENTRY = 16;
+
+	private static final int RADIX_BITS = 16;
+	private static final int RADIX_MASK = (1 << RADIX_BITS) - 1;
+
+	// A mapped buffer can't be larger than 2 GB, so the entries are
+	// mapped in segments of 1 GB
+	private static final int SEGMENT_SHIFT = 26;
+	private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+
+	/*
+	 * Attributes
+	 */
+
+	private final RandomAccessFile file;
+	private final ByteBuffer[] segments;
+	private final long size;
+	private final int games;
+
+	/*
+	 * Constructors
+	 */
+
+	private PositionIndex(RandomAccessFile file, ByteBuffer[] segments, long size, int games) {
+		this.file = file;
+		this.segments = segments;
+		this.size = size;
+		this.games = games;
+	}
+
+	/*
+	 * Utility methods
+	 */
+
+	// Maps the entries of a file of the given number of entries
+	private static ByteBuffer[] map(FileChannel channel, FileChannel.MapMode mode, long size) throws IOException {
+		int n = (int) ((size + SEGMENT_MASK) >>> SEGMENT_SHIFT);
+		ByteBuffer[] segments = new ByteBuffer[n];
+		for (int i = 0; i < n; i++) {
+			long first = (long) i << SEGMENT_SHIFT;
+			long entries = Math.min(size - first, 1L << SEGMENT_SHIFT);
+			segments[i] = channel.map(mode, HEADER + first * ENTRY, entries * ENTRY);
+		}
+		return segments;
+	}
+
+	private long key(long i) {
+		return segments[(int) (i >>> SEGMENT_SHIFT)].getLong((int) (i & SEGMENT_MASK) * ENTRY);
+	}
+
+	private int game(long i) {
+		return segments[(int) (i >>> SEGMENT_SHIFT)].getInt((int) (i & SEGMENT_MASK) * ENTRY + 8);
+	}
+
+	private int move(long i) {
+		return segments[(int) (i >>> SEGMENT_SHIFT)].getInt((int) (i & SEGMENT_MASK) * ENTRY + 12);
+	}
+
+	// Returns the first entry with a key that isn't less than the given key
+	private long lowerBound(long key) {
+		long low = 0;
+		long high = size;
+		while (low < high) {
+			long middle = (low + high) >>> 1;
+			if (Long.compareUnsigned(key(middle), key) < 0) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	// Replays the games of the given lines into a sorted run
+	private static Run replay(List<String> lines, int from, int to) {
+		Run run = new Run();
+		Game start = new Game();
+		Game game = new Game();
+
+		for (int i = from; i < to; i++) {
+			String[] tokens = lines.get(i).trim().split("\\s+");
+			int id;
+			try {
+				id = Integer.parseInt(tokens[0]);
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid game id: " + tokens[0]);
+			}
+			if (id < 0) {
+				throw new IllegalArgumentException("Invalid game id: " + id);
+			}
+
+			game.copyFrom(start);
+			for (int j = 1; j < tokens.length; j++) {
+				int packed = PackedMove.parse(tokens[j]);
+				Move move = PackedMove.toMove(game, packed);
+				if (move == null) {
+					throw new IllegalArgumentException("Illegal move in game " + id + ": " + tokens[j]);
+				}
+				run.add(game.getKey(), id, packed);
+				game.move(move);
+			}
+			run.add(game.getKey(), id, PackedMove.NONE);
+		}
+
+		run.sort();
+		return run;
+	}
+
+	private static int compare(Run a, Run b) {
+		int c = Long.compareUnsigned(a.keys[a.next], b.keys[b.next]);
+		return c != 0 ? c : Long.compareUnsigned(a.values[a.next], b.values[b.next]);
+	}
+
+	/*
+	 * Public methods
+	 */
+
+	/**
+	 * Builds an index of an archive, and writes it to a file.
+	 *
+	 * @param archive	The archive to index, in the format described above
+	 * @param filename	The file to write the index to
+	 * @param threads	The number of threads to replay the games on
+	 * @return			The number of positions in the index
+	 * @throws			IOException	If the archive can't be read, or the index can't be written
+	 * @throws			IllegalArgumentException	If the archive has an invalid line or an illegal move
+	 */
+	public static long build(String archive, String filename, int threads) throws IOException {
+		final List<String> lines = new ArrayList<String>();
+		BufferedReader in = new BufferedReader(new FileReader(archive));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				line = line.trim();
+				if (!line.isEmpty() && !line.startsWith("#")) {
+					lines.add(line);
+				}
+			}
+		} finally {
+			in.close();
+		}
+
+		// More parts than threads, so a thread that gets the short games
+		// doesn't sit idle
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<Run>> futures = new ArrayList<Future<Run>>();
+		int parts = Math.max(1, Math.min(lines.size(), threads * 4));
+		for (int i = 0; i < parts; i++) {
+			final int from = (int) ((long) lines.size() * i / parts);
+			final int to = (int) ((long) lines.size() * (i + 1) / parts);
+			futures.add(executor.submit(new Callable<Run>() {
+				public Run call() {
+					return replay(lines, from, to);
+				}
+			}));
+		}
+
+		List<Run> runs = new ArrayList<Run>();
+		long size = 0;
+		try {
+			for (Future<Run> future : futures) {
+				Run run = future.get();
+				runs.add(run);
+				size += run.size;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while building the index", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IllegalStateException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+
+		RandomAccessFile out = new RandomAccessFile(filename, "rw");
+		try {
+			out.setLength(0);
+			out.setLength(HEADER + size * ENTRY);
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(size);
+			out.writeInt(lines.size());
+			out.writeInt(0);
+
+			// Merge the sorted runs into the file
+			PriorityQueue<Run> queue = new PriorityQueue<Run>(Math.max(1, runs.size()), new Comparator<Run>() {
+				public int compare(Run a, Run b) {
+					return PositionIndex.compare(a, b);
+				}
+			});
+			for (Run run : runs) {
+				if (run.size > 0) {
+					queue.add(run);
+				}
+			}
+
+			ByteBuffer[] segments = map(out.getChannel(), FileChannel.MapMode.READ_WRITE, size);
+			for (long i = 0; i < size; i++) {
+				Run run = queue.poll();
+				ByteBuffer segment = segments[(int) (i >>> SEGMENT_SHIFT)];
+				int offset = (int) (i & SEGMENT_MASK) * ENTRY;
+				segment.putLong(offset, run.keys[run.next]);
+				segment.putLong(offset + 8, run.values[run.next]);
+				if (++run.next < run.size) {
+					queue.add(run);
+				}
+			}
+			for (ByteBuffer segment : segments) {
+				((MappedByteBuffer) segment).force();
+			}
+		} finally {
+			out.close();
+		}
+
+		return size;
+	}
+
+	/**
+	 * Opens an index file written by {@link #build}. The file is mapped
+	 * into memory, and must not be changed while the index is open.
+	 *
+	 * @param filename	The index file
+	 * @return			The index
+	 * @throws			IOException	If the file can't be read
+	 * @throws			IllegalArgumentException	If the file isn't a valid index
+	 */
+	public static PositionIndex open(String filename) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(filename, "r");
+
+		try {
+			if (file.readInt() != MAGIC || file.readInt() != VERSION) {
+				throw new IllegalArgumentException("Incompatible file version.");
+			}
+			long size = file.readLong();
+			int games = file.readInt();
+			if (size < 0 || file.length() != HEADER + size * ENTRY) {
+				throw new IllegalArgumentException("Invalid index size: " + size);
+			}
+
+			ByteBuffer[] segments = map(file.getChannel(), FileChannel.MapMode.READ_ONLY, size);
+			return new PositionIndex(file, segments, size, games);
+		} catch (IOException | RuntimeException e) {
+			file.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Finds the games that reached the position with the given key.
+	 *
+	 * @param key	The Zobrist key of the position
+	 * @return		The games and the moves played from the position
+	 * @see			Game#getKey
+	 */
+	public Result find(long key) {
+		long first = lowerBound(key);
+		long last = first;
+		while (last < size && key(last) == key) {
+			last++;
+		}
+
+		long n = last - first;
+		int[] ids = new int[(int) Math.min(n, games)];
+		int distinct = 0;
+		int[] moveCounts = new int[1 << 12];
+		long ended = 0;
+
+		// The entries are sorted by game id, so duplicates are next to each other
+		for (long i = first; i < last; i++) {
+			int id = game(i);
+			if (distinct == 0 || ids[distinct - 1] != id) {
+				if (distinct == ids.length) {
+					ids = Arrays.copyOf(ids, distinct * 2 + 1);
+				}
+				ids[distinct++] = id;
+			}
+
+			int move = move(i);
+			if (move == PackedMove.NONE) {
+				ended++;
+			} else {
+				moveCounts[move]++;
+			}
+		}
+
+		// Sort the moves by count, the most common first
+		int different = 0;
+		for (int count : moveCounts) {
+			if (count > 0) {
+				different++;
+			}
+		}
+		long[] sorted = new long[different];
+		for (int move = 0, j = 0; move < moveCounts.length; move++) {
+			if (moveCounts[move] > 0) {
+				sorted[j++] = ((long) -moveCounts[move] << 32) | move;
+			}
+		}
+		Arrays.sort(sorted);
+
+		int[] moves = new int[different];
+		int[] counts = new int[different];
+		for (int i = 0; i < different; i++) {
+			moves[i] = (int) sorted[i];
+			counts[i] = (int) -(sorted[i] >> 32);
+		}
+
+		return new Result(n, ended, Arrays.copyOf(ids, distinct), moves, counts);
+	}
+
+	/**
+	 * Finds the games that reached the current position of a game.
+	 *
+	 * @param game	The game in the position to find
+	 * @return		The games and the moves played from the position
+	 */
+	public Result find(Game game) {
+		return find(game.getKey());
+	}
+
+	/**
+	 * Returns the number of positions in the index, counting every
+	 * position of every game.
+	 *
+	 * @return	The number of positions
+	 */
+	public long size() {
+		return size;
+	}
+
+	/**
+	 * Returns the number of games in the index.
+	 *
+	 * @return	The number of games
+	 */
+	public int games() {
+		return games;
+	}
+
+	/**
+	 * Closes the index file. The index can't be used after this.
+	 *
+	 * @throws	IOException	If the file can't be closed
+	 */
+	public void close() throws IOException {
+		Arrays.fill(segments, null);
+		file.close();
+	}
+
+	static void usage() {
+		System.err.println("Usage: java chess.PositionIndex -index FILE [options]");
+		System.err.println("  -index FILE       The index file");
+		System.err.println("  -build ARCHIVE    Build the index from the games in ARCHIVE");
+		System.err.println("  -threads N        Number of threads to build with (default: number of cores)");
+		System.err.println("  -fen FEN          Find the games that reached the position FEN");
+		System.err.println("  -moves MOVES      Find the games that reached the position after MOVES,");
+		System.err.println("                    in coordinate notation from the starting position");
+		System.exit(1);
+	}
+
+	public static void main(String[] args) throws IOException {
+		String index = null;
+		String archive = null;
+		int threads = Runtime.getRuntime().availableProcessors();
+		Game game = null;
+
+		try {
+			for (int i = 0; i < args.length; i += 2) {
+				String value = args[i + 1];
+				switch (args[i]) {
+				case "-index":
+					index = value;
+					break;
+				case "-build":
+					archive = value;
+					break;
+				case "-threads":
+					threads = Integer.parseInt(value);
+					break;
+				case "-fen":
+					game = Fen.parse(value);
+					break;
+				case "-moves":
+					game = new Game();
+					for (String text : value.trim().split("\\s+")) {
+						Move move = PackedMove.toMove(game, PackedMove.parse(text));
+						if (move == null) {
+							throw new IllegalArgumentException("Illegal move: " + text);
+						}
+						game.move(move);
+					}
+					break;
+				default:
+					usage();
+				}
+			}
+		} catch (RuntimeException e) {
+			usage();
+		}
+
+		if (index == null || threads <= 0 || (archive == null && game == null)) {
+			usage();
+		}
+
+		if (archive != null) {
+			long start = System.nanoTime();
+			long size = build(archive, index, threads);
+			double seconds = (System.nanoTime() - start) / 1e9;
+			System.out.printf("Indexed %d positions in %.1f s (%.0f positions/s)%n", size, seconds, size / seconds);
+		}
+
+		if (game != null) {
+			PositionIndex positions = open(index);
+			try {
+				long start = System.nanoTime();
+				Result result = positions.find(game);
+				long time = System.nanoTime() - start;
+				System.out.println(result);
+				System.out.printf("Found in %.3f ms among %d positions of %d games%n",
+						time / 1e6, positions.size(), positions.games());
+			} finally {
+				positions.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,181 @@
+package chess;
+
+/**
+ * A map from positions to longs, stored as {@link PackedPosition}s in one
+ * long array and the values in another, 32 bytes per slot, so there is
+ * no object per entry. This is meant for counting or scoring millions of
+ * positions, for example when building an opening book. Adding or looking
+ * up the position of a game doesn't allocate, except when the table grows.
+ *
+ * Only the pieces on the board and the player to move are compared, see
+ * {@link PackedPosition}. Like the collections of java.util, a map can't
+ * be used by several threads at once.
+ *
+ * @author	Sindre Stephansen
+ * @see		PositionSet
+ */
+public class PositionMap extends PositionTable {
+	/*
+	 * Attributes
+	 */
+
+	private long[] values;
+
+	/*
+	 * Constructors
+	 */
+
+	/**
+	 * Class constructor. Creates an empty map.
+	 */
+	public PositionMap() {
+		this(0);
+	}
+
+	/**
+	 * Class constructor. Creates an empty map that can hold the given
+	 * number of positions before it has to grow.
+	 *
+	 * @param expected	The number of positions
+	 * @throws			IllegalArgumentException	If expected is negative
+	 */
+	public PositionMap(int expected) {
+		super(expected);
+		values = new long[capacity()];
+	}
+
+	/*
+	 * Utility methods
+	 */
+
+	@Override
+	int[] rehash(int capacity) {
+		int[] slots = super.rehash(capacity);
+		long[] old = values;
+		values = new long[capacity];
+		for (int i = 0; i < slots.length; i++) {
+			if (slots[i] >= 0) {
+				values[slots[i]] = old[i];
+			}
+		}
+
+		return slots;
+	}
+
+	private long get(long[] key, long missing) {
+		int slot = slot(key, 0);
+		return isUsed(slot) ? values[slot] : missing;
+	}
+
+	private void put(long[] key, long value) {
+		int slot = insert(key, 0);
+		values[slot < 0 ? -1 - slot : slot] = value;
+	}
+
+	private long add(long[] key, long delta) {
+		int slot = insert(key, 0);
+		if (slot < 0) {
+			slot = -1 - slot;
+			values[slot] = 0;
+		}
+
+		return values[slot] += delta;
+	}
+
+	/*
+	 * Public methods
+	 */
+
+	/**
+	 * Returns the value of the current position of a game.
+	 *
+	 * @param game		The game
+	 * @param missing	The value to return if the position isn't in the map
+	 * @return			The value
+	 * @throws			IllegalArgumentException	If the position can't be packed
+	 */
+	public long get(Game game, long missing) {
+		return get(pack(game), missing);
+	}
+
+	/**
+	 * Returns the value of a packed position.
+	 *
+	 * @param position	The position
+	 * @param missing	The value to return if the position isn't in the map
+	 * @return			The value
+	 */
+	public long get(PackedPosition position, long missing) {
+		return get(position.data, missing);
+	}
+
+	/**
+	 * Sets the value of the current position of a game.
+	 *
+	 * @param game	The game
+	 * @param value	The value
+	 * @throws		IllegalArgumentException	If the position can't be packed
+	 * @throws		IllegalStateException		If the map can't grow any more
+	 */
+	public void put(Game game, long value) {
+		put(pack(game), value);
+	}
+
+	/**
+	 * Sets the value of a packed position.
+	 *
+	 * @param position	The position
+	 * @param value		The value
+	 * @throws			IllegalStateException	If the map can't grow any more
+	 */
+	public void put(PackedPosition position, long value) {
+		put(position.data, value);
+	}
+
+	/**
+	 * Adds to the value of the current position of a game. A position
+	 * that isn't in the map starts at 0, so this can be used for counting.
+	 *
+	 * @param game	The game
+	 * @param delta	The amount to add
+	 * @return		The new value
+	 * @throws		IllegalArgumentException	If the position can't be packed
+	 * @throws		IllegalStateException		If the map can't grow any more
+	 */
+	public long add(Game game, long delta) {
+		return add(pack(game), delta);
+	}
+
+	/**
+	 * Adds to the value of a packed position, see {@link #add(Game, long)}.
+	 *
+	 * @param position	The position
+	 * @param delta		The amount to add
+	 * @return			The new value
+	 * @throws			IllegalStateException	If the map can't grow any more
+	 */
+	public long add(PackedPosition position, long delta) {
+		return add(position.data, delta);
+	}
+
+	/**
+	 * Determines whether the current position of a game is in the map.
+	 *
+	 * @param game	The game
+	 * @return		Whether the position is in the map
+	 * @throws		IllegalArgumentException	If the position can't be packed
+	 */
+	public boolean containsKey(Game game) {
+		return isUsed(slot(pack(game), 0));
+	}
+
+	/**
+	 * Determines whether a packed position is in the map.
+	 *
+	 * @param position	The position
+	 * @return			Whether the position is in the map
+	 */
+	public boolean containsKey(PackedPosition position) {
+		return isUsed(slot(position.data, 0));
+	}
+}
@@ -0,0 +1,86 @@
+package chess;
+
+/**
+ * A set of positions, stored as {@link PackedPosition}s in one long array,
+ * 24 bytes per slot, so there is no object per position. This is meant
+ * for removing duplicates from millions of positions. Adding or looking
+ * up the position of a game doesn't allocate, except when the table grows.
+ *
+ * Only the pieces on the board and the player to move are compared, see
+ * {@link PackedPosition}. Like the collections of java.util, a set can't
+ * be used by several threads at once.
+ *
+ * @author	Sindre Stephansen
+ * @see		PositionMap
+ */
+public class PositionSet extends PositionTable {
+	/*
+	 * Constructors
+	 */
+
+	/**
+	 * Class constructor. Creates an empty set.
+	 */
+	public PositionSet() {
+		this(0);
+	}
+
+	/**
+	 * Class constructor. Creates an empty set that can hold the given
+	 * number of positions before it has to grow.
+	 *
+	 * @param expected	The number of positions
+	 * @throws			IllegalArgumentException	If expected is negative
+	 */
+	public PositionSet(int expected) {
+		super(expected);
+	}
+
+	/*
+	 * Public methods
+	 */
+
+	/**
+	 * Adds the current position of a game.
+	 *
+	 * @param game	The game
+	 * @return		Whether the position wasn't in the set before
+	 * @throws		IllegalArgumentException	If the position can't be packed
+	 * @throws		IllegalStateException		If the set can't grow any more
+	 */
+	public boolean add(Game game) {
+		return insert(pack(game), 0) < 0;
+	}
+
+	/**
+	 * Adds a packed position.
+	 *
+	 * @param position	The position
+	 * @return			Whether the position wasn't in the set before
+	 * @throws			IllegalStateException	If the set can't grow any more
+	 */
+	public boolean add(PackedPosition position) {
+		return insert(position.data, 0) < 0;
+	}
+
+	/**
+	 * Determines whether the current position of a game is in the set.
+	 *
+	 * @param game	The game
+	 * @return		Whether the position is in the set
+	 * @throws		IllegalArgumentException	If the position can't be packed
+	 */
+	public boolean contains(Game game) {
+		return isUsed(slot(pack(game), 0));
+	}
+
+	/**
+	 * Determines whether a packed position is in the set.
+	 *
+	 * @param position	The position
+	 * @return			Whether the position is in the set
+	 */
+	public boolean contains(PackedPosition position) {
+		return isUsed(slot(position.data, 0));
+	}
+}
@@ -0,0 +1,352 @@
+package chess;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * A list of positions kept outside the Java heap, for analysis jobs with
+ * hundreds of millions of positions. Every position is stored as a
+ * {@link PackedPosition} of 24 bytes in a direct or memory-mapped buffer,
+ * so the heap and the work of the garbage collector don't grow with the
+ * number of positions. Positions can only be appended, and are read by
+ * their index, into a game that can be reused.
+ *
+ * The positions are kept in segments of {@link #SEGMENT_POSITIONS}
+ * positions, since a buffer can't be larger than 2 GB, and a new segment
+ * is added when the last one is full. A store is either held in memory,
+ * where the segments are direct buffers, limited by
+ * -XX:MaxDirectMemorySize, or backed by a file, where the segments are
+ * mapped from the file, and the operating system decides what is kept in
+ * memory. A file starts with a header of 16 bytes, the int 'CHPS', the
+ * int version and the long number of positions, followed by the
+ * positions, big-endian like in PackedPosition. The file grows a segment
+ * at a time, so it is usually longer than the positions in it.
+ *
+ * Appending is synchronized, so several threads can append at once, and
+ * positions that have been appended can be read by any thread at the same
+ * time as more are appended. For parallel jobs, {@link #stream} splits the
+ * positions between the threads of a stream.
+ *
+ * @author	Sindre Stephansen
+ * @see		PackedPosition
+ * @see		PositionIndex
+ */
+public class PositionStore implements Closeable {
+	/**
+	 * The number of positions of a segment.
+	 */
+	public static final int SEGMENT_POSITIONS = 1 << 21;
+
+	private static final int MAGIC = 0x43485053;
+	private static final int VERSION = 1;
+	private static final int HEADER = 16;
+	private static final int RECORD = PackedPosition.LONGS * 8;
+
+	private static final int SEGMENT_SHIFT = 21;
+	private static final long SEGMENT_MASK = SEGMENT_POSITIONS - 1;
+	private static final int SEGMENT_SIZE = SEGMENT_POSITIONS * RECORD;
+
+	// Ranges smaller than this aren't split further between threads
+	private static final long MIN_SPLIT = 1 << 12;
+
+	/**
+	 * Hands out the positions of a range of the store, loaded into one
+	 * game, which is created the first time it is needed. The game is
+	 * reused for every position, so the consumer must not keep it.
+	 */
+	private final class Positions implements Spliterator<Game> {
+		private long index;
+		private final long end;
+		private Game game = null;
+
+		Positions(long index, long end) {
+			this.index = index;
+			this.end = end;
+		}
+
+		@Override
+		public boolean tryAdvance(Consumer<? super Game> action) {
+			if (index >= end) {
+				return false;
+			}
+			if (game == null) {
+				game = new Game();
+			}
+
+			read(index++, game);
+			action.accept(game);
+			return true;
+		}
+
+		@Override
+		public Spliterator<Game> trySplit() {
+			if (end - index < 2 * MIN_SPLIT) {
+				return null;
+			}
+
+			long middle = (index + end) >>> 1;
+			Positions first = new Positions(index, middle);
+			index = middle;
+			return first;
+		}
+
+		@Override
+		public long estimateSize() {
+			return end - index;
+		}
+
+		@Override
+		public int characteristics() {
+			return ORDERED | SIZED | SUBSIZED | NONNULL | IMMUTABLE;
+		}
+	}
+
+	/*
+	 * Attributes
+	 */
+
+	// The file the positions are mapped from, or null if they are in memory
+	private final RandomAccessFile file;
+
+	private volatile ByteBuffer[] segments = new ByteBuffer[0];
+	private volatile long size = 0;
+
+	// The position being appended, so appending doesn't allocate
+	private final long[] scratch = new long[PackedPosition.LONGS];
+
+	/*
+	 * Constructors
+	 */
+
+	/**
+	 * Class constructor. Creates an empty store in memory, outside the heap.
+	 */
+	public PositionStore() {
+		this.file = null;
+	}
+
+	private PositionStore(RandomAccessFile file, long size) throws IOException {
+		this.file = file;
+		int n = (int) ((size + SEGMENT_MASK) >>> SEGMENT_SHIFT);
+		ByteBuffer[] segments = new ByteBuffer[n];
+		for (int i = 0; i < n; i++) {
+			segments[i] = map(i);
+		}
+		this.segments = segments;
+		this.size = size;
+	}
+
+	/*
+	 * Utility methods
+	 */
+
+	private ByteBuffer map(int segment) throws IOException {
+		return file.getChannel().map(FileChannel.MapMode.READ_WRITE, HEADER + (long) segment * SEGMENT_SIZE, SEGMENT_SIZE);
+	}
+
+	private void checkIndex(long index) {
+		if (index < 0 || index >= size) {
+			throw new IllegalArgumentException("Invalid index: " + index);
+		}
+	}
+
+	// Must be called while holding the lock
+	private long append(long[] position) {
+		long index = size;
+		int segment = (int) (index >>> SEGMENT_SHIFT);
+
+		if (segment == segments.length) {
+			ByteBuffer buffer;
+			try {
+				buffer = file == null ? ByteBuffer.allocateDirect(SEGMENT_SIZE) : map(segment);
+			} catch (IOException e) {
+				throw new IllegalStateException("Couldn't grow the store", e);
+			}
+			ByteBuffer[] grown = Arrays.copyOf(segments, segment + 1);
+			grown[segment] = buffer;
+			segments = grown;
+		}
+
+		ByteBuffer buffer = segments[segment];
+		int offset = (int) (index & SEGMENT_MASK) * RECORD;
+		buffer.putLong(offset, position[0]);
+		buffer.putLong(offset + 8, position[1]);
+		buffer.putLong(offset + 16, position[2]);
+
+		// Readers only look at positions below the size, so it's set last
+		size = index + 1;
+		return index;
+	}
+
+	/*
+	 * Public methods
+	 */
+
+	/**
+	 * Opens a store backed by a file, which is created if it doesn't
+	 * exist. The positions already in the file are kept.
+	 *
+	 * @param filename	The file
+	 * @return			The store
+	 * @throws			IOException	If the file can't be read or written
+	 * @throws			IllegalArgumentException	If the file isn't a valid store
+	 */
+	public static PositionStore open(String filename) throws IOException {
+		boolean exists = new File(filename).length() > 0;
+		RandomAccessFile file = new RandomAccessFile(filename, "rw");
+
+		try {
+			long size = 0;
+			if (exists) {
+				if (file.readInt() != MAGIC || file.readInt() != VERSION) {
+					throw new IllegalArgumentException("Incompatible file version.");
+				}
+				size = file.readLong();
+				if (size < 0 || file.length() < HEADER + size * RECORD) {
+					throw new IllegalArgumentException("Invalid store size: " + size);
+				}
+			} else {
+				file.writeInt(MAGIC);
+				file.writeInt(VERSION);
+				file.writeLong(0);
+			}
+
+			return new PositionStore(file, size);
+		} catch (IOException | RuntimeException e) {
+			file.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Appends the current position of a game.
+	 *
+	 * @param game	The game
+	 * @return		The index of the position
+	 * @throws		IllegalArgumentException	If the position can't be packed
+	 * @throws		IllegalStateException		If the store can't grow
+	 */
+	public synchronized long append(Game game) {
+		PackedPosition.pack(game, scratch, 0);
+		return append(scratch);
+	}
+
+	/**
+	 * Appends a packed position.
+	 *
+	 * @param position	The position
+	 * @return			The index of the position
+	 * @throws			IllegalStateException	If the store can't grow
+	 */
+	public synchronized long append(PackedPosition position) {
+		return append(position.data);
+	}
+
+	/**
+	 * Sets up a position in a game. The history of the game is cleared.
+	 * Nothing is allocated, so the same game can be used for reading any
+	 * number of positions.
+	 *
+	 * @param index	The index of the position
+	 * @param game	The game to set up
+	 * @throws		IllegalArgumentException	If there is no position with the index
+	 */
+	public void read(long index, Game game) {
+		checkIndex(index);
+		PackedPosition.unpack(segments[(int) (index >>> SEGMENT_SHIFT)], (int) (index & SEGMENT_MASK) * RECORD, game);
+	}
+
+	/**
+	 * Returns a position as a packed position.
+	 *
+	 * @param index	The index of the position
+	 * @return		The position
+	 * @throws		IllegalArgumentException	If there is no position with the index
+	 */
+	public PackedPosition get(long index) {
+		checkIndex(index);
+		ByteBuffer buffer = segments[(int) (index >>> SEGMENT_SHIFT)];
+		int offset = (int) (index & SEGMENT_MASK) * RECORD;
+		long[] data = {buffer.getLong(offset), buffer.getLong(offset + 8), buffer.getLong(offset + 16)};
+		return new PackedPosition(data, 0);
+	}
+
+	/**
+	 * Returns the number of positions.
+	 *
+	 * @return	The number of positions
+	 */
+	public long size() {
+		return size;
+	}
+
+	/**
+	 * Returns a spliterator over the positions in the store when it is
+	 * called. Each part of a split loads its positions into its own game,
+	 * which is reused for every position, so the games handed out must not
+	 * be kept or changed.
+	 *
+	 * @return	The spliterator
+	 */
+	public Spliterator<Game> spliterator() {
+		return new Positions(0, size);
+	}
+
+	/**
+	 * Returns a stream of the positions in the store when it is called,
+	 * see {@link #spliterator}.
+	 *
+	 * @param parallel	Whether the stream should be parallel
+	 * @return			The stream
+	 */
+	public Stream<Game> stream(boolean parallel) {
+		return StreamSupport.stream(spliterator(), parallel);
+	}
+
+	/**
+	 * Writes the number of positions to the file, and the positions that
+	 * haven't been written yet. Does nothing for a store in memory.
+	 *
+	 * @throws	IOException	If the file can't be written
+	 */
+	public synchronized void flush() throws IOException {
+		if (file == null) {
+			return;
+		}
+
+		for (ByteBuffer segment : segments) {
+			((MappedByteBuffer) segment).force();
+		}
+		file.seek(8);
+		file.writeLong(size);
+	}
+
+	/**
+	 * Flushes a store backed by a file and closes the file. The store
+	 * can't be used after this. The memory of a store is given back when
+	 * the garbage collector finds that the buffers are no longer used.
+	 *
+	 * @throws	IOException	If the file can't be written
+	 */
+	public synchronized void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			size = 0;
+			segments = new ByteBuffer[0];
+			if (file != null) {
+				file.close();
+			}
+		}
+	}
+}
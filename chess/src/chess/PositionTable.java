@@ -0,0 +1,197 @@
+package chess;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * The hash table behind {@link PositionSet} and {@link PositionMap}. The
+ * positions are packed with {@link PackedPosition} and stored directly in
+ * one long array, {@link PackedPosition#LONGS} longs per slot, so there is
+ * no object per position. Collisions are resolved by linear probing, and
+ * an empty slot is marked by an occupancy mask of 0, which no packed
+ * position has, since the player to move always has a king.
+ *
+ * The table doubles in size when it is three quarters full. Positions
+ * can't be removed one at a time, only all at once with {@link #clear}.
+ *
+ * @author	Sindre Stephansen
+ * @see		PackedPosition
+ */
+abstract class PositionTable implements Iterable<PackedPosition> {
+	// The largest number of slots, so that the keys fit in one array
+	static final int MAX_CAPACITY = 1 << 29;
+
+	private static final int MIN_CAPACITY = 16;
+	private static final int LONGS = PackedPosition.LONGS;
+
+	/*
+	 * Attributes
+	 */
+
+	long[] keys;
+	int mask;
+	int size = 0;
+
+	// The position being looked up, so lookups from a game don't allocate
+	private final long[] scratch = new long[LONGS];
+
+	/*
+	 * Constructors
+	 */
+
+	PositionTable(int expected) {
+		if (expected < 0) {
+			throw new IllegalArgumentException("Invalid number of positions: " + expected);
+		}
+
+		int capacity = MIN_CAPACITY;
+		while (capacity < MAX_CAPACITY && capacity / 4 * 3 < expected) {
+			capacity *= 2;
+		}
+		keys = new long[capacity * LONGS];
+		mask = capacity - 1;
+	}
+
+	/*
+	 * Utility methods
+	 */
+
+	// Packs the position of a game into the scratch array
+	long[] pack(Game game) {
+		PackedPosition.pack(game, scratch, 0);
+		return scratch;
+	}
+
+	// Returns the slot of a position, or the empty slot where it would go
+	int slot(long[] key, int offset) {
+		int slot = PackedPosition.hash(key, offset) & mask;
+		while (keys[slot * LONGS] != 0 && !PackedPosition.equals(keys, slot * LONGS, key, offset)) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	boolean isUsed(int slot) {
+		return keys[slot * LONGS] != 0;
+	}
+
+	// Returns the slot of a position, adding it if it isn't in the table.
+	// A new position is returned as -1 - slot.
+	int insert(long[] key, int offset) {
+		int slot = slot(key, offset);
+		if (isUsed(slot)) {
+			return slot;
+		}
+
+		if (size + 1 > capacity() / 4 * 3) {
+			if (capacity() == MAX_CAPACITY) {
+				throw new IllegalStateException("Too many positions");
+			}
+			rehash(capacity() * 2);
+			slot = slot(key, offset);
+		}
+
+		System.arraycopy(key, offset, keys, slot * LONGS, LONGS);
+		size++;
+		return -1 - slot;
+	}
+
+	/**
+	 * Moves every position to a new table of the given number of slots.
+	 * Subclasses that keep something per slot must move it too.
+	 *
+	 * @param capacity	The new number of slots, a power of two
+	 * @return			The new slot of each old slot, or -1 for an empty slot
+	 */
+	int[] rehash(int capacity) {
+		long[] old = keys;
+		int[] slots = new int[old.length / LONGS];
+		keys = new long[capacity * LONGS];
+		mask = capacity - 1;
+
+		for (int i = 0; i < slots.length; i++) {
+			if (old[i * LONGS] == 0) {
+				slots[i] = -1;
+			} else {
+				slots[i] = slot(old, i * LONGS);
+				System.arraycopy(old, i * LONGS, keys, slots[i] * LONGS, LONGS);
+			}
+		}
+
+		return slots;
+	}
+
+	/*
+	 * Public methods
+	 */
+
+	/**
+	 * Returns the number of positions.
+	 *
+	 * @return	The number of positions
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the number of slots, which is a power of two.
+	 *
+	 * @return	The number of slots
+	 */
+	public int capacity() {
+		return mask + 1;
+	}
+
+	/**
+	 * Removes all positions, but keeps the size of the table.
+	 */
+	public void clear() {
+		Arrays.fill(keys, 0);
+		size = 0;
+	}
+
+	/**
+	 * Returns an iterator over the positions, in no particular order. The
+	 * table must not be changed while iterating.
+	 *
+	 * @return	The iterator
+	 */
+	@Override
+	public Iterator<PackedPosition> iterator() {
+		return new Iterator<PackedPosition>() {
+			private int slot = -1;
+
+			{
+				advance();
+			}
+
+			private void advance() {
+				do {
+					slot++;
+				} while (slot < capacity() && !isUsed(slot));
+			}
+
+			@Override
+			public boolean hasNext() {
+				return slot < capacity();
+			}
+
+			@Override
+			public PackedPosition next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				PackedPosition position = new PackedPosition(keys, slot * LONGS);
+				advance();
+				return position;
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+}
@@ -0,0 +1,48 @@
+package chess;
+
+import java.util.Random;
+
+/**
+ * A player that picks a random legal move.
+ * 
+ * @author	Sindre Stephansen
+ * @see		Player
+ */
+public class RandomPlayer implements Player {
+	private final Random random;
+	private long time = 0;
+	
+	/**
+	 * Class constructor.
+	 * 
+	 * @param seed	The seed of the random number generator
+	 */
+	public RandomPlayer(long seed) {
+		random = new Random(seed);
+	}
+	
+	public Move chooseMove(Game game) {
+		long start = System.nanoTime();
+		Move[] moves = game.validMoves();
+		time += System.nanoTime() - start;
+		
+		if (moves.length == 0) {
+			return null;
+		}
+		
+		return moves[random.nextInt(moves.length)];
+	}
+	
+	public long nodes() {
+		return 0;
+	}
+	
+	public long time() {
+		return time;
+	}
+	
+	@Override
+	public String toString() {
+		return "random";
+	}
+}
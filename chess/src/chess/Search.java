@@ -0,0 +1,774 @@
+package chess;
+
+import java.util.Arrays;
+
+import chess.Piece.Color;
+
+/**
+ * An alpha-beta search that finds the best move in a position. The search
+ * deepens iteratively, one ply at a time, until it reaches the maximum
+ * depth or runs out of time, so there is always a move to play.
+ *
+ * On top of plain alpha-beta the search uses a transposition table,
+ * principal variation search, aspiration windows, null-move pruning,
+ * late-move reductions and futility pruning. Each of these can be turned
+ * off through {@link #options}, to measure what they are worth.
+ *
+ * The search can also find the best few moves at once, each with its own
+ * score and principal variation (multi-PV), see {@link #setLines}. This
+ * is slower, and meant for analysis rather than play.
+ *
+ * The search plays moves on the game it was given and takes them back
+ * again, so the game is in the same position when the search returns.
+ * The game must not be used by anyone else while the search is running.
+ * Scores are given in centipawns from the point of view of the player
+ * to move.
+ *
+ * @author	Sindre Stephansen
+ * @see		Game
+ * @see		SearchPlayer
+ */
+public class Search {
+	/**
+	 * The techniques the search uses on top of plain alpha-beta.
+	 * All of them are on by default.
+	 */
+	public static class Options {
+		/**
+		 * Store results in the transposition table, and use them.
+		 */
+		public boolean hashTable = true;
+
+		/**
+		 * Search all but the first move with a null window, and only search
+		 * them again with the full window if they turn out to be better.
+		 */
+		public boolean pvs = true;
+
+		/**
+		 * Start each iteration with a narrow window around the last score.
+		 */
+		public boolean aspiration = true;
+
+		/**
+		 * Let the opponent move twice at reduced depth, and cut off if the
+		 * position still holds. Not used when the player has only pawns
+		 * and a king, since zugzwang is common then.
+		 */
+		public boolean nullMove = true;
+
+		/**
+		 * Search late quiet moves at reduced depth first.
+		 */
+		public boolean lateMoveReductions = true;
+
+		/**
+		 * Skip quiet moves near the leaves when the position is so far
+		 * below alpha that they can't bring it back.
+		 */
+		public boolean futility = true;
+
+		@Override
+		public String toString() {
+			return "hash=" + hashTable + " pvs=" + pvs + " aspiration=" + aspiration +
+					" nullmove=" + nullMove + " lmr=" + lateMoveReductions + " futility=" + futility;
+		}
+	}
+
+	/**
+	 * Receives the result of each iteration of the search, as it finishes.
+	 *
+	 * @see Search#setListener
+	 */
+	public interface Listener {
+		/**
+		 * Called by the searching thread when an iteration is finished.
+		 * The depth, score, nodes and principal variation of the search
+		 * are those of the finished iteration.
+		 *
+		 * @param search	The search that finished an iteration
+		 */
+		public void iterationFinished(Search search);
+	}
+
+	/**
+	 * The score of a checkmate. A mate in n plies is scored as MATE - n.
+	 */
+	public static final int MATE = 100000;
+
+	/**
+	 * A score larger than any real score.
+	 */
+	public static final int INFINITY = 1000000;
+
+	/**
+	 * The maximum number of plies the search can go down.
+	 */
+	public static final int MAX_PLY = 128;
+
+	// How many nodes to search between each check of the clock
+	private static final int CHECK_INTERVAL = 1024;
+
+	// How far below alpha a position must be for quiet moves to be
+	// skipped, indexed by the remaining depth
+	private static final int[] FUTILITY_MARGIN = {0, 200, 500};
+
+	// The first aspiration window is this far on each side of the last score
+	private static final int ASPIRATION_WINDOW = 50;
+
+	/*
+	 * Attributes
+	 */
+
+	/**
+	 * The techniques the search uses. Changes take effect at the next search.
+	 */
+	public final Options options = new Options();
+
+	private final Game game;
+	private final TranspositionTable table;
+	private Listener listener;
+
+	private long nodes;
+	private long startTime;
+	private volatile long deadline;
+	private volatile boolean stopped;
+
+	// The principal variation found at each ply, as packed moves
+	private final int[][] pv = new int[MAX_PLY + 1][MAX_PLY + 1];
+	private final int[] pvLength = new int[MAX_PLY + 1];
+
+	private final MoveOrdering ordering = new MoveOrdering();
+	private final MoveGenerator[] generators = new MoveGenerator[MAX_PLY + 1];
+	private long qnodes;
+	private long cutoffs;
+	private long firstMoveCutoffs;
+
+	private Move bestMove;
+	private int bestScore;
+	private int completedDepth;
+	private int[] bestLine = new int[0];
+
+	// The number of root moves to find the score and line of
+	private int lines = 1;
+	private int[] lineScores = new int[0];
+	private int[][] linePvs = new int[0][];
+
+	/*
+	 * Constructors
+	 */
+
+	/**
+	 * Class constructor. The search gets its own transposition table
+	 * of 2^18 entries (4 MB).
+	 *
+	 * @param game	The game to search
+	 */
+	public Search(Game game) {
+		this(game, new TranspositionTable(18));
+	}
+
+	/**
+	 * Class constructor. The transposition table may be shared with
+	 * other searches, also ones running in other threads.
+	 *
+	 * @param game	The game to search
+	 * @param table	The transposition table to use
+	 */
+	public Search(Game game, TranspositionTable table) {
+		this.game = game;
+		this.table = table;
+		for (int i = 0; i < generators.length; i++) {
+			generators[i] = new MoveGenerator();
+		}
+	}
+
+	/*
+	 * Utility methods
+	 */
+
+	/**
+	 * Evaluates the current position statically, from the point of view
+	 * of the player to move.
+	 *
+	 * @param game	The game to evaluate
+	 * @return		The score of the position in centipawns
+	 * @see			Evaluation#evaluate
+	 */
+	public static int evaluate(Game game) {
+		return Evaluation.evaluate(game);
+	}
+
+	private boolean checkTime() {
+		if ((nodes % CHECK_INTERVAL) == 0 && deadline != 0 && System.currentTimeMillis() >= deadline) {
+			stopped = true;
+		}
+
+		return stopped;
+	}
+
+	private void updatePv(int ply, Move move) {
+		pv[ply][ply] = PackedMove.of(move);
+		for (int i = ply + 1; i < pvLength[ply + 1]; i++) {
+			pv[ply][i] = pv[ply + 1][i];
+		}
+		pvLength[ply] = Math.max(pvLength[ply + 1], ply + 1);
+	}
+
+	static String pvString(int[] line, int length) {
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < length; i++) {
+			if (i > 0) {
+				builder.append(' ');
+			}
+			builder.append(PackedMove.toString(line[i]));
+		}
+		return builder.toString();
+	}
+
+	private static boolean isMate(int score) {
+		return Math.abs(score) >= MATE - MAX_PLY;
+	}
+
+	private int alphaBeta(int depth, int ply, int alpha, int beta, boolean allowNull) {
+		pvLength[ply] = ply;
+		nodes++;
+
+		if (checkTime()) {
+			return 0;
+		}
+
+		// A single repetition is enough to score a draw inside the search,
+		// since the side that repeated could repeat again.
+		if (game.repetitions() > 0 || game.isFiftyMoveDraw()) {
+			return 0;
+		}
+
+		if (depth <= 0 || ply >= MAX_PLY) {
+			return quiesce(ply, alpha, beta);
+		}
+
+		boolean pvNode = beta - alpha > 1;
+		long key = game.getKey();
+		int hashMove = PackedMove.NONE;
+
+		if (options.hashTable) {
+			long entry = table.probe(key);
+			if (entry != 0) {
+				hashMove = TranspositionTable.move(entry);
+				if (!pvNode && TranspositionTable.depth(entry) >= depth) {
+					int score = TranspositionTable.score(entry, ply);
+					int bound = TranspositionTable.bound(entry);
+					if (bound == TranspositionTable.EXACT ||
+							(bound == TranspositionTable.LOWER && score >= beta) ||
+							(bound == TranspositionTable.UPPER && score <= alpha)) {
+						return Math.max(alpha, Math.min(beta, score));
+					}
+				}
+			}
+		}
+
+		Color color = game.getCurrentColor();
+		boolean inCheck = game.isInCheck(color);
+		int staticEval = inCheck ? -INFINITY : evaluate(game);
+
+		// If the position still holds after passing the turn, a real move
+		// will almost certainly hold too
+		if (options.nullMove && allowNull && !pvNode && !inCheck && depth >= 3 &&
+				staticEval >= beta && !isMate(beta) && game.hasPieces(color)) {
+			game.makeNullMove();
+			int score = -alphaBeta(depth - 3 - depth / 4, ply + 1, -beta, -beta + 1, false);
+			game.undoNullMove();
+
+			if (stopped) {
+				return 0;
+			}
+			if (score >= beta) {
+				return beta;
+			}
+		}
+
+		boolean futile = options.futility && !pvNode && !inCheck && depth < FUTILITY_MARGIN.length &&
+				!isMate(alpha) && staticEval + FUTILITY_MARGIN[depth] <= alpha;
+
+		// Try the hash move first, or the move from the last principal variation
+		int first = hashMove;
+		if (first == PackedMove.NONE && ply < bestLine.length) {
+			first = bestLine[ply];
+		}
+		MoveGenerator generator = generators[ply];
+		generator.init(game, ordering, ply, first);
+
+		int originalAlpha = alpha;
+		int best = PackedMove.NONE;
+		int searched = 0;
+
+		int packed;
+		while ((packed = generator.next()) != PackedMove.NONE) {
+			Move move = generator.toMove(packed);
+			boolean tactical = MoveOrdering.isTactical(game, move);
+
+			game.move(move);
+			boolean givesCheck = game.isInCheck(game.getCurrentColor());
+
+			if (futile && searched > 0 && !tactical && !givesCheck) {
+				game.undo();
+				continue;
+			}
+
+			int score;
+			if (searched == 0) {
+				score = -alphaBeta(depth - 1, ply + 1, -beta, -alpha, true);
+			} else {
+				int reduction = 0;
+				if (options.lateMoveReductions && depth >= 3 && searched >= 3 &&
+						!tactical && !inCheck && !givesCheck) {
+					reduction = Math.min(searched >= 6 ? 2 : 1, depth - 2);
+				}
+
+				// The later moves only need to be proven worse than the best
+				// so far, which a null window does cheaply
+				int window = options.pvs ? alpha + 1 : beta;
+				score = -alphaBeta(depth - 1 - reduction, ply + 1, -window, -alpha, true);
+
+				if (reduction > 0 && score > alpha) {
+					score = -alphaBeta(depth - 1, ply + 1, -window, -alpha, true);
+				}
+				if (window != beta && score > alpha && score < beta) {
+					score = -alphaBeta(depth - 1, ply + 1, -beta, -alpha, true);
+				}
+			}
+
+			game.undo();
+			searched++;
+
+			if (stopped) {
+				return 0;
+			}
+
+			if (score > alpha) {
+				alpha = score;
+				best = packed;
+				updatePv(ply, move);
+				if (score >= beta) {
+					cutoffs++;
+					if (generator.picked() == 1) {
+						firstMoveCutoffs++;
+					}
+					if (!tactical) {
+						ordering.cutoff(game, move, ply, depth);
+					}
+					break;
+				}
+			}
+		}
+
+		// No legal moves were generated, so the game is over
+		if (generator.picked() == 0) {
+			return inCheck ? -MATE + ply : 0;
+		}
+
+		if (options.hashTable) {
+			int bound = alpha >= beta ? TranspositionTable.LOWER :
+					alpha > originalAlpha ? TranspositionTable.EXACT : TranspositionTable.UPPER;
+			table.store(key, best, alpha, depth, bound, ply);
+		}
+
+		return alpha;
+	}
+
+	// Searches captures and promotions until the position is quiet, so the
+	// static evaluation isn't taken in the middle of an exchange. Captures
+	// that lose material according to SEE are skipped.
+	private int quiesce(int ply, int alpha, int beta) {
+		pvLength[ply] = ply;
+		nodes++;
+		qnodes++;
+
+		if (checkTime()) {
+			return 0;
+		}
+
+		if (ply >= MAX_PLY) {
+			return evaluate(game);
+		}
+
+		// When in check every move is searched, since standing pat isn't an option
+		boolean inCheck = game.isInCheck(game.getCurrentColor());
+		if (!inCheck) {
+			int standPat = evaluate(game);
+			if (standPat >= beta) {
+				return beta;
+			}
+			if (standPat > alpha) {
+				alpha = standPat;
+			}
+		}
+
+		// When in check every move is searched, otherwise only the captures
+		// and promotions that don't lose material
+		MoveGenerator generator = generators[ply];
+		if (inCheck) {
+			generator.init(game, ordering, ply, PackedMove.NONE);
+		} else {
+			generator.initTactical(game, ordering, ply);
+		}
+
+		int packed;
+		while ((packed = generator.next()) != PackedMove.NONE) {
+			Move move = generator.toMove(packed);
+			game.move(move);
+			int score = -quiesce(ply + 1, -beta, -alpha);
+			game.undo();
+
+			if (stopped) {
+				return 0;
+			}
+
+			if (score > alpha) {
+				alpha = score;
+				updatePv(ply, move);
+				if (score >= beta) {
+					break;
+				}
+			}
+		}
+
+		if (inCheck && generator.picked() == 0) {
+			return -MATE + ply;
+		}
+
+		return alpha;
+	}
+
+	// Searches the root moves from the given index on, within the given
+	// window. Returns alpha if no move was better than alpha, and beta or
+	// more if a move was at least beta. The moves before the given index
+	// are left out, so multi-PV can search for the next best move.
+	private int searchRoot(Move[] moves, int first, int depth, int alpha, int beta) {
+		int best = -1;
+		pvLength[0] = 0;
+		nodes++;
+
+		for (int i = first; i < moves.length; i++) {
+			game.move(moves[i]);
+			int score;
+			if (i == first || !options.pvs) {
+				score = -alphaBeta(depth - 1, 1, -beta, -alpha, true);
+			} else {
+				score = -alphaBeta(depth - 1, 1, -alpha - 1, -alpha, true);
+				if (score > alpha && score < beta) {
+					score = -alphaBeta(depth - 1, 1, -beta, -alpha, true);
+				}
+			}
+			game.undo();
+
+			if (stopped) {
+				break;
+			}
+
+			if (score > alpha) {
+				alpha = score;
+				best = i;
+				updatePv(0, moves[i]);
+				if (score >= beta) {
+					break;
+				}
+			}
+		}
+
+		// Search the best move first in the next iteration
+		if (best > first) {
+			Move tmp = moves[best];
+			System.arraycopy(moves, first, moves, first + 1, best - first);
+			moves[first] = tmp;
+		}
+
+		return alpha;
+	}
+
+	/*
+	 * Public methods
+	 */
+
+	/**
+	 * Searches for the best move in the current position. The search
+	 * stops when it has finished the given depth or when the time runs
+	 * out, whichever comes first. Returns null if there are no legal moves.
+	 *
+	 * @param maxDepth	The maximum depth to search, in plies
+	 * @param millis	The time to search for, in milliseconds, or 0 for no limit
+	 * @return			The best move found
+	 */
+	public Move search(int maxDepth, long millis) {
+		nodes = 0;
+		qnodes = 0;
+		cutoffs = 0;
+		firstMoveCutoffs = 0;
+		ordering.newSearch();
+		stopped = false;
+		startTime = System.nanoTime();
+		deadline = millis > 0 ? System.currentTimeMillis() + millis : 0;
+		bestMove = null;
+		bestScore = 0;
+		completedDepth = 0;
+		bestLine = new int[0];
+		lineScores = new int[0];
+		linePvs = new int[0][];
+
+		Move[] moves = game.validMoves();
+		if (moves.length == 0) {
+			return null;
+		}
+
+		// Make sure there is a move to play, even if the first iteration is cut short
+		bestMove = moves[0];
+
+		for (int depth = 1; depth <= Math.min(maxDepth, MAX_PLY); depth++) {
+			Object event = Events.beginSearchIteration();
+
+			int score;
+			if (options.aspiration && depth >= 4 && !isMate(bestScore)) {
+				// Widen the window on the side that failed until the score fits
+				int delta = ASPIRATION_WINDOW;
+				int alpha = bestScore - delta;
+				int beta = bestScore + delta;
+				while (true) {
+					score = searchRoot(moves, 0, depth, alpha, beta);
+					if (stopped) {
+						break;
+					} else if (score <= alpha) {
+						alpha = Math.max(alpha - delta, -INFINITY);
+					} else if (score >= beta) {
+						beta = Math.min(beta + delta, INFINITY);
+					} else {
+						break;
+					}
+					delta *= 2;
+				}
+			} else {
+				score = searchRoot(moves, 0, depth, -INFINITY, INFINITY);
+			}
+
+			// Each further line is the best of the moves not already in a line
+			int count = Math.min(lines, moves.length);
+			int[] scores = new int[count];
+			int[][] pvs = new int[count][];
+			scores[0] = score;
+			pvs[0] = Arrays.copyOf(pv[0], pvLength[0]);
+			int done = 1;
+			for (int i = 1; i < count && !stopped; i++) {
+				scores[i] = searchRoot(moves, i, depth, -INFINITY, INFINITY);
+				pvs[i] = Arrays.copyOf(pv[0], pvLength[0]);
+				if (!stopped) {
+					done++;
+				}
+			}
+
+			if (Events.shouldCommit(event)) {
+				Events.commitSearchIteration(event, depth, nodes, score, pvString(pv[0], pvLength[0]), !stopped);
+			}
+
+			if (stopped && depth > 1) {
+				break;
+			}
+
+			bestMove = moves[0];
+			bestScore = score;
+			completedDepth = depth;
+			bestLine = pvs[0];
+			lineScores = Arrays.copyOf(scores, done);
+			linePvs = Arrays.copyOf(pvs, done);
+
+			if (listener != null) {
+				listener.iterationFinished(this);
+			}
+
+			if (stopped || isMate(score)) {
+				break;
+			}
+		}
+
+		return bestMove;
+	}
+
+	/**
+	 * Stops a running search as soon as possible. This can be called
+	 * from another thread.
+	 */
+	public void stop() {
+		stopped = true;
+	}
+
+	/**
+	 * Changes when a search stops. This can be called from another thread
+	 * while the search is running, for example to give a search that was
+	 * started without a time limit one, see {@link PonderingPlayer}.
+	 *
+	 * @param time	The time to stop at, as given by System.currentTimeMillis,
+	 * 				or 0 for no limit
+	 */
+	public void setDeadline(long time) {
+		deadline = time;
+	}
+
+	/**
+	 * Sets how many of the best moves the search finds the score and
+	 * principal variation of. Only the first line decides the best move.
+	 * Changes take effect at the next search.
+	 *
+	 * @param lines	The number of lines, at least 1
+	 * @throws		IllegalArgumentException	If lines is less than 1
+	 */
+	public void setLines(int lines) {
+		if (lines < 1) {
+			throw new IllegalArgumentException("There must be at least one line");
+		}
+		this.lines = lines;
+	}
+
+	/**
+	 * Returns the number of lines found by the last completed iteration.
+	 * This is less than asked for with {@link #setLines} if there are
+	 * fewer legal moves.
+	 *
+	 * @return	The number of lines
+	 */
+	public int lines() {
+		return lineScores.length;
+	}
+
+	/**
+	 * Returns the score of a line of the last completed iteration. Line 0
+	 * is the best, and has the same score as {@link #score}.
+	 *
+	 * @param line	The index of the line
+	 * @return		The score in centipawns, from the point of view of the player to move
+	 */
+	public int lineScore(int line) {
+		return lineScores[line];
+	}
+
+	/**
+	 * Returns the principal variation of a line of the last completed
+	 * iteration. The first move of each line is different.
+	 *
+	 * @param line	The index of the line
+	 * @return		The expected line of play, as packed moves
+	 */
+	public int[] linePv(int line) {
+		return linePvs[line].clone();
+	}
+
+	/**
+	 * Sets the listener that is told about each finished iteration.
+	 *
+	 * @param listener	The listener, or null for none
+	 */
+	public void setListener(Listener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Forgets the killer moves and history scores learned by earlier
+	 * searches. Together with clearing the {@link #table}, this makes the
+	 * next search independent of the positions searched before it.
+	 */
+	public void clearHistory() {
+		ordering.clear();
+	}
+
+	/**
+	 * Returns the transposition table used by this search.
+	 *
+	 * @return	The transposition table
+	 */
+	public TranspositionTable table() {
+		return table;
+	}
+
+	/**
+	 * Returns the best move found by the last search.
+	 *
+	 * @return	The best move, or null if there were no legal moves
+	 */
+	public Move bestMove() {
+		return bestMove;
+	}
+
+	/**
+	 * Returns the score of the best move found by the last search.
+	 *
+	 * @return	The score in centipawns, from the point of view of the player to move
+	 */
+	public int score() {
+		return bestScore;
+	}
+
+	/**
+	 * Returns the depth of the last iteration that was completed.
+	 *
+	 * @return	The completed depth in plies
+	 */
+	public int depth() {
+		return completedDepth;
+	}
+
+	/**
+	 * Returns the number of positions visited by the last search.
+	 *
+	 * @return	The number of nodes searched
+	 */
+	public long nodes() {
+		return nodes;
+	}
+
+	/**
+	 * Returns the time since the last search started.
+	 *
+	 * @return	The elapsed time in nanoseconds
+	 */
+	public long elapsed() {
+		return System.nanoTime() - startTime;
+	}
+
+	/**
+	 * Returns the number of positions visited by the quiescence search
+	 * in the last search. These are included in {@link #nodes}.
+	 *
+	 * @return	The number of quiescence nodes searched
+	 */
+	public long quiescenceNodes() {
+		return qnodes;
+	}
+
+	/**
+	 * Returns the number of beta cutoffs in the last search.
+	 *
+	 * @return	The number of cutoffs
+	 */
+	public long cutoffs() {
+		return cutoffs;
+	}
+
+	/**
+	 * Returns the number of beta cutoffs in the last search that were
+	 * caused by the first move searched. The closer this is to
+	 * {@link #cutoffs}, the better the move ordering.
+	 *
+	 * @return	The number of cutoffs on the first move
+	 */
+	public long firstMoveCutoffs() {
+		return firstMoveCutoffs;
+	}
+
+	/**
+	 * Returns the principal variation of the last completed iteration.
+	 *
+	 * @return	The expected line of play, as packed moves
+	 * @see		PackedMove
+	 */
+	public int[] pv() {
+		return bestLine.clone();
+	}
+}
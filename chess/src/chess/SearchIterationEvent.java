@@ -0,0 +1,36 @@
+package chess;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A Flight Recorder event for one iteration of {@link Search#search}.
+ * The duration of the event is the time spent on the iteration.
+ * 
+ * @author	Sindre Stephansen
+ * @see		Search
+ */
+@Name("chess.SearchIteration")
+@Label("Search Iteration")
+@Category("Chess")
+@Description("One iteration of the iterative deepening search")
+@StackTrace(false)
+final class SearchIterationEvent extends jdk.jfr.Event {
+	@Label("Depth")
+	int depth;
+	
+	@Label("Nodes")
+	long nodes;
+	
+	@Label("Score")
+	int score;
+	
+	@Label("Principal Variation")
+	String pv;
+	
+	@Label("Completed")
+	boolean completed;
+}
@@ -0,0 +1,106 @@
+package chess;
+
+/**
+ * A player that chooses moves with a {@link Search}, limited
+ * either by depth or by time.
+ * 
+ * @author	Sindre Stephansen
+ * @see		Player
+ * @see		Search
+ */
+public class SearchPlayer implements Player {
+	private final int depth;
+	private final long millis;
+	private final Game scratch = new Game();
+	private final Search search = new Search(scratch);
+	
+	private long nodes = 0;
+	private long time = 0;
+	private long cutoffs = 0;
+	private long firstMoveCutoffs = 0;
+	
+	/**
+	 * Class constructor.
+	 * 
+	 * @param depth		The maximum depth to search, in plies
+	 * @param millis	The time to search each move for, in milliseconds, or 0 for no limit
+	 */
+	public SearchPlayer(int depth, long millis) {
+		this.depth = depth;
+		this.millis = millis;
+	}
+	
+	/**
+	 * Class constructor, for a player that evaluates positions with
+	 * a neural network.
+	 * 
+	 * @param depth		The maximum depth to search, in plies
+	 * @param millis	The time to search each move for, in milliseconds, or 0 for no limit
+	 * @param network	The network to evaluate with, or null to use the piece-square tables
+	 * @see				Game#setNetwork
+	 */
+	public SearchPlayer(int depth, long millis, NeuralNetwork network) {
+		this(depth, millis);
+		scratch.setNetwork(network);
+	}
+	
+	public Move chooseMove(Game game) {
+		long start = System.nanoTime();
+		
+		// Search on a copy, so the game itself is left alone
+		scratch.copyFrom(game);
+		Move move = search.search(depth, millis);
+		
+		time += System.nanoTime() - start;
+		nodes += search.nodes();
+		cutoffs += search.cutoffs();
+		firstMoveCutoffs += search.firstMoveCutoffs();
+		
+		return move;
+	}
+	
+	/**
+	 * Returns the search used by this player, which holds
+	 * the details of the last search.
+	 * 
+	 * @return	The search used by this player
+	 */
+	public Search getSearch() {
+		return search;
+	}
+	
+	/**
+	 * Returns the number of beta cutoffs in all searches so far.
+	 * 
+	 * @return	The number of cutoffs
+	 */
+	public long cutoffs() {
+		return cutoffs;
+	}
+	
+	/**
+	 * Returns the number of beta cutoffs caused by the first move
+	 * searched, in all searches so far.
+	 * 
+	 * @return	The number of cutoffs on the first move
+	 */
+	public long firstMoveCutoffs() {
+		return firstMoveCutoffs;
+	}
+	
+	public long nodes() {
+		return nodes;
+	}
+	
+	public long time() {
+		return time;
+	}
+	
+	@Override
+	public String toString() {
+		if (millis > 0) {
+			return "time:" + millis;
+		}
+		return "depth:" + depth;
+	}
+}
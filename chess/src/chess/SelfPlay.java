@@ -0,0 +1,190 @@
+package chess;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Plays games of the engine against itself without the GUI, and writes
+ * every position to {@link TrainingData} files, with the score the search
+ * gave it and the result of the game. The games are played in parallel
+ * on a thread pool.
+ *
+ * Each game starts with a few random moves, so the games differ. The
+ * positions of the random moves aren't written, since they weren't
+ * searched. The records of a game are gathered until the game is over,
+ * since the result isn't known before that, and are then written all at
+ * once.
+ *
+ * Run with -help for a list of options.
+ *
+ * @author	Sindre Stephansen
+ * @see		TrainingData
+ * @see		Tournament
+ */
+public class SelfPlay {
+	/*
+	 * Attributes
+	 */
+
+	int games = 100;
+	int threads = Runtime.getRuntime().availableProcessors();
+	int depth = 4;
+	int maxPlies = 300;
+	int openingPlies = 8;
+	long seed = 1;
+	String output = "selfplay";
+	long fileSize = 64 << 20;
+	NeuralNetwork network = null;
+
+	/*
+	 * Utility methods
+	 */
+
+	// Plays one game, and returns the number of positions written
+	int play(int id, TrainingData.Writer writer) throws IOException {
+		Game game = new Game();
+		game.setNetwork(network);
+		Search search = new Search(game);
+		Random random = new Random(seed * 1000003 + id);
+		ByteBuffer records = ByteBuffer.allocate(maxPlies * TrainingData.RECORD_SIZE);
+
+		for (int i = 0; i < openingPlies; i++) {
+			Move[] moves = game.validMoves();
+			if (moves.length == 0) {
+				break;
+			}
+			game.move(moves[random.nextInt(moves.length)]);
+		}
+
+		int result;
+		while (true) {
+			if (game.isDraw() || game.getTurn() >= maxPlies) {
+				result = TrainingData.DRAW;
+				break;
+			}
+
+			Game.Status status = game.status();
+			if (status == Game.Status.CHECKMATE) {
+				result = game.getCurrentColor() == Piece.Color.WHITE ?
+						TrainingData.BLACK_WINS : TrainingData.WHITE_WINS;
+				break;
+			} else if (status == Game.Status.STALEMATE) {
+				result = TrainingData.DRAW;
+				break;
+			}
+
+			// The search changes the game while it runs, but leaves it as it was
+			Move move = search.search(depth, 0);
+
+			TrainingData.encode(game, search.score(), TrainingData.DRAW, records);
+			game.move(move);
+		}
+
+		records.flip();
+		TrainingData.setResult(records, 0, records.limit(), result);
+		writer.write(records);
+		return records.limit() / TrainingData.RECORD_SIZE;
+	}
+
+	void run() throws IOException, InterruptedException, ExecutionException {
+		final TrainingData.Writer writer = new TrainingData.Writer(output, fileSize);
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		CompletionService<Integer> completion = new ExecutorCompletionService<Integer>(executor);
+
+		long start = System.nanoTime();
+		for (int i = 0; i < games; i++) {
+			final int id = i;
+			completion.submit(new Callable<Integer>() {
+				public Integer call() throws IOException {
+					return play(id, writer);
+				}
+			});
+		}
+
+		long positions = 0;
+		try {
+			for (int i = 0; i < games; i++) {
+				positions += completion.take().get();
+			}
+		} finally {
+			executor.shutdownNow();
+			writer.close();
+		}
+
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.printf("Games:      %d in %.1f s (%.2f games/s)%n", games, seconds, games / seconds);
+		System.out.printf("Positions:  %d (%.0f positions/s)%n", positions, positions / seconds);
+		System.out.println("Files:      " + writer.files());
+	}
+
+	static void usage() {
+		System.err.println("Usage: java chess.SelfPlay [options]");
+		System.err.println("  -games N          Number of games to play (default 100)");
+		System.err.println("  -threads N        Number of games to play at once (default: number of cores)");
+		System.err.println("  -depth N          Depth to search each move to (default 4)");
+		System.err.println("  -maxplies N       Adjudicate a draw after N plies (default 300)");
+		System.err.println("  -openingplies N   Number of random moves to start each game with (default 8)");
+		System.err.println("  -seed N           Seed for the openings (default 1)");
+		System.err.println("  -output PREFIX    Write the positions to PREFIX-0000.bin and so on (default selfplay)");
+		System.err.println("  -filesize MB      Start a new file after MB megabytes (default 64)");
+		System.err.println("  -network FILE     Evaluate with the neural network in FILE");
+		System.exit(1);
+	}
+
+	public static void main(String[] args) throws Exception {
+		SelfPlay s = new SelfPlay();
+
+		try {
+			for (int i = 0; i < args.length; i += 2) {
+				String value = args[i + 1];
+				switch (args[i]) {
+				case "-games":
+					s.games = Integer.parseInt(value);
+					break;
+				case "-threads":
+					s.threads = Integer.parseInt(value);
+					break;
+				case "-depth":
+					s.depth = Integer.parseInt(value);
+					break;
+				case "-maxplies":
+					s.maxPlies = Integer.parseInt(value);
+					break;
+				case "-openingplies":
+					s.openingPlies = Integer.parseInt(value);
+					break;
+				case "-seed":
+					s.seed = Long.parseLong(value);
+					break;
+				case "-output":
+					s.output = value;
+					break;
+				case "-filesize":
+					s.fileSize = (long) (Double.parseDouble(value) * (1 << 20));
+					break;
+				case "-network":
+					s.network = NeuralNetwork.load(value);
+					break;
+				default:
+					usage();
+				}
+			}
+		} catch (RuntimeException e) {
+			usage();
+		}
+
+		if (s.games <= 0 || s.threads <= 0 || s.depth <= 0 || s.maxPlies <= 0
+				|| s.fileSize < TrainingData.RECORD_SIZE || s.fileSize > Integer.MAX_VALUE) {
+			usage();
+		}
+
+		s.run();
+	}
+}
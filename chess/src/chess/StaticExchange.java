@@ -0,0 +1,221 @@
+package chess;
+
+import chess.Piece.Color;
+import chess.Piece.Type;
+
+/**
+ * Static exchange evaluation (SEE): the material won or lost by a capture,
+ * when both players keep recapturing on the target square with their least
+ * valuable piece, and either player may stop when recapturing would lose.
+ * Pieces behind the capturing pieces (x-rays) join in as the pieces in
+ * front of them are used up. Pins and checks are ignored.
+ *
+ * This is used by {@link Search} to skip losing captures, and can be used
+ * by anyone else who needs to rank captures, for example the GUI.
+ *
+ * @author	Sindre Stephansen
+ * @see		Search
+ */
+public final class StaticExchange {
+	private static final int[] VALUES = MoveOrdering.VALUES;
+
+	// The most captures an exchange can have, one per piece on the board
+	static final int GAIN_SIZE = 32;
+
+
+	private StaticExchange() {}
+
+	/*
+	 * Utility methods
+	 */
+
+	private static Piece at(Game game, long removed, int x, int y) {
+		if (x < 0 || x > 7 || y < 0 || y > 7 || (removed & (1L << (x + 8*y))) != 0) {
+			return null;
+		}
+		return game.board[x][y];
+	}
+
+	// Keeps the attacker if it is less valuable than the best one so far
+	private static int better(Game game, int best, Piece piece, int x, int y) {
+		if (best < 0) {
+			return x + 8*y;
+		}
+		Piece other = game.board[best % 8][best / 8];
+		return VALUES[piece.type.ordinal()] < VALUES[other.type.ordinal()] ? x + 8*y : best;
+	}
+
+	// Looks for sliding attackers along the given directions
+	private static int slider(Game game, long removed, int tx, int ty, Color color,
+			int[][] directions, Type type, int best) {
+		for (int[] d : directions) {
+			int x = tx + d[0];
+			int y = ty + d[1];
+			while (x >= 0 && x < 8 && y >= 0 && y < 8) {
+				Piece piece = at(game, removed, x, y);
+				if (piece != null) {
+					if (piece.color == color && (piece.type == type || piece.type == Type.QUEEN)) {
+						best = better(game, best, piece, x, y);
+					}
+					break;
+				}
+				x += d[0];
+				y += d[1];
+			}
+		}
+
+		return best;
+	}
+
+	/**
+	 * Finds the least valuable piece of the given color that attacks the
+	 * given square, ignoring the pieces on the squares in removed.
+	 *
+	 * @return	The square of the attacker, or -1 if there is none
+	 */
+	static int leastValuableAttacker(Game game, long removed, int tx, int ty, Color color) {
+		int best = -1;
+
+		// Pawns attack diagonally forward, so look diagonally backward
+		int back = color == Color.WHITE ? -1 : 1;
+		for (int dx = -1; dx <= 1; dx += 2) {
+			Piece piece = at(game, removed, tx + dx, ty + back);
+			if (piece != null && piece.color == color && piece.type == Type.PAWN) {
+				return (tx + dx) + 8*(ty + back);
+			}
+		}
+
+		for (int[] d : Game.KNIGHT_OFFSETS) {
+			Piece piece = at(game, removed, tx + d[0], ty + d[1]);
+			if (piece != null && piece.color == color && piece.type == Type.KNIGHT) {
+				return (tx + d[0]) + 8*(ty + d[1]);
+			}
+		}
+
+		best = slider(game, removed, tx, ty, color, Game.DIAGONALS, Type.BISHOP, best);
+		best = slider(game, removed, tx, ty, color, Game.LINES, Type.ROOK, best);
+
+		if (best >= 0) {
+			return best;
+		}
+
+		for (int[] d : Game.KING_OFFSETS) {
+			Piece piece = at(game, removed, tx + d[0], ty + d[1]);
+			if (piece != null && piece.color == color && piece.type == Type.KING) {
+				return (tx + d[0]) + 8*(ty + d[1]);
+			}
+		}
+
+		return -1;
+	}
+
+	// The value of a piece once it has moved to the given rank
+	private static int valueOn(Piece piece, int y) {
+		if (piece.type == Type.PAWN && (y == 0 || y == 7)) {
+			return VALUES[Type.QUEEN.ordinal()];
+		}
+		return VALUES[piece.type.ordinal()];
+	}
+
+	/*
+	 * Public methods
+	 */
+
+	/**
+	 * Evaluates the exchange started by moving the piece on origin to target.
+	 * A positive value means the player to move wins material, a negative
+	 * value means they lose material, and 0 means the exchange is even or
+	 * the move isn't a capture or a promotion. A king moving to a defended
+	 * square isn't legal, and is valued as losing the king.
+	 *
+	 * @param game		The game to evaluate the exchange in
+	 * @param origin	The position of the piece that starts the exchange
+	 * @param target	The square the exchange happens on
+	 * @return			The expected material gain in centipawns
+	 * @throws			IllegalArgumentException	If there is no piece at origin
+	 */
+	public static int evaluate(Game game, Pos origin, Pos target) {
+		return evaluate(game, origin.x + 8*origin.y, target.x + 8*target.y, new int[GAIN_SIZE]);
+	}
+
+	/**
+	 * Evaluates the exchange started by moving the piece on one square to
+	 * another, like {@link #evaluate(Game, Pos, Pos)}, but with a buffer
+	 * from the caller for the gains of the captures, so nothing is allocated.
+	 *
+	 * @param game	The game to evaluate the exchange in
+	 * @param from	The square of the piece that starts the exchange, between 0 and 63
+	 * @param to	The square the exchange happens on, between 0 and 63
+	 * @param gain	A buffer of at least {@link #GAIN_SIZE} ints
+	 * @return		The expected material gain in centipawns
+	 * @throws		IllegalArgumentException	If there is no piece on from
+	 */
+	static int evaluate(Game game, int from, int to, int[] gain) {
+		Piece piece = game.board[from % 8][from / 8];
+		if (piece == null) {
+			throw new IllegalArgumentException("There is no piece at that position");
+		}
+
+		int tx = to % 8;
+		int ty = to / 8;
+		Piece victim = game.board[tx][ty];
+		int depth = 0;
+
+		gain[0] = victim == null ? 0 : VALUES[victim.type.ordinal()];
+		if (valueOn(piece, ty) != VALUES[piece.type.ordinal()]) {
+			gain[0] += valueOn(piece, ty) - VALUES[piece.type.ordinal()];
+		}
+
+		int onSquare = valueOn(piece, ty);
+		boolean kingOnSquare = piece.type == Type.KING;
+		long removed = 1L << from;
+		Color side = piece.color == Color.WHITE ? Color.BLACK : Color.WHITE;
+
+		while (depth < GAIN_SIZE - 1) {
+			int square = leastValuableAttacker(game, removed, tx, ty, side);
+			if (square < 0) {
+				break;
+			}
+			if (kingOnSquare) {
+				if (depth == 0) {
+					// The move itself takes the king into an attacked square
+					return -VALUES[Type.KING.ordinal()];
+				}
+				// The last capture was made by a king into an attacked square,
+				// which isn't legal, so that capture is taken off the list.
+				depth--;
+				break;
+			}
+
+			Piece attacker = game.board[square % 8][square / 8];
+			depth++;
+			gain[depth] = onSquare - gain[depth - 1];
+
+			onSquare = valueOn(attacker, ty);
+			kingOnSquare = attacker.type == Type.KING;
+			removed |= 1L << square;
+			side = side == Color.WHITE ? Color.BLACK : Color.WHITE;
+		}
+
+		// Each player can choose to stop capturing, so go back through the
+		// list and let each capture only be made if it doesn't lose.
+		while (depth > 0) {
+			gain[depth - 1] = -Math.max(-gain[depth - 1], gain[depth]);
+			depth--;
+		}
+
+		return gain[0];
+	}
+
+	/**
+	 * Evaluates the exchange started by the given move.
+	 *
+	 * @param game	The game to evaluate the exchange in
+	 * @param move	The move that starts the exchange
+	 * @return		The expected material gain in centipawns
+	 * @see			#evaluate(Game, Pos, Pos)
+	 */
+	public static int evaluate(Game game, Move move) {
+		return evaluate(game, move.origin(), move.target());
+	}
+}
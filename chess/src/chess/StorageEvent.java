@@ -0,0 +1,31 @@
+package chess;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A Flight Recorder event for saving or loading a game with
+ * {@link ChessStorageBinary}. The duration of the event is the
+ * time spent on the file.
+ * 
+ * @author	Sindre Stephansen
+ * @see		ChessStorageBinary
+ */
+@Name("chess.Storage")
+@Label("Game Storage")
+@Category("Chess")
+@Description("Saving or loading of a game")
+final class StorageEvent extends jdk.jfr.Event {
+	@Label("Operation")
+	String operation;
+	
+	@Label("File")
+	String file;
+	
+	@Label("Bytes")
+	@DataAmount
+	long bytes;
+}
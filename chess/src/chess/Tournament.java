@@ -0,0 +1,409 @@
+package chess;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Plays a match between two players without the GUI, and reports the
+ * result and the speed of the players. The games are played in parallel
+ * on a thread pool, with one game and a fresh pair of players per game.
+ *
+ * Each pair of games starts from the same randomly chosen opening, with
+ * the players switching colors, so neither player gets the better side
+ * of an opening more often. One line per game is written to the log as
+ * soon as the game is finished, on the form
+ * 'id white black result reason plies'. The moves of the games can also
+ * be written to an archive, one game per line, on the form 'id move move ...'
+ * with the moves in coordinate notation, which {@link PositionIndex} can index.
+ *
+ * Players are given as 'random', 'depth:N' or 'time:MILLIS'. A searching
+ * player can be prefixed with 'ponder:' to think on the opponent's time.
+ * Run with -help for a list of options.
+ *
+ * @author	Sindre Stephansen
+ * @see		Player
+ */
+public class Tournament {
+	/**
+	 * The outcome of a single game.
+	 */
+	static class Result {
+		int id;
+		// The score of player 1: 1 for a win, 0.5 for a draw, 0 for a loss
+		double score;
+		String result;
+		String reason;
+		String white;
+		String black;
+		int plies;
+		long nodes;
+		long time;
+		long cutoffs;
+		long firstMoveCutoffs;
+		long ponderHits;
+		long ponderMisses;
+		// The moves of the game in coordinate notation, separated by spaces
+		String moves;
+	}
+
+	/*
+	 * Attributes
+	 */
+
+	int games = 100;
+	int threads = Runtime.getRuntime().availableProcessors();
+	String player1 = "depth:2";
+	String player2 = "random";
+	int maxPlies = 300;
+	int openingPlies = 4;
+	long seed = 1;
+	String log = null;
+	String archive = null;
+	double elo0 = 0;
+	double elo1 = 5;
+	boolean metrics = false;
+	NeuralNetwork network1 = null;
+	NeuralNetwork network2 = null;
+
+	/*
+	 * Utility methods
+	 */
+
+	/**
+	 * Creates a player from a description, on the form 'random',
+	 * 'depth:N' or 'time:MILLIS'. The searching players can be prefixed
+	 * with 'ponder:', to think while the opponent is to move.
+	 *
+	 * @param spec	The description of the player
+	 * @param seed	The seed to use for random players
+	 * @return		The player
+	 * @throws		IllegalArgumentException	If the description is invalid
+	 */
+	static Player createPlayer(String spec, long seed) {
+		return createPlayer(spec, seed, null);
+	}
+	
+	/**
+	 * Creates a player from a description, like {@link #createPlayer(String, long)},
+	 * that evaluates positions with the given neural network.
+	 * 
+	 * @param spec		The description of the player
+	 * @param seed		The seed to use for random players
+	 * @param network	The network for searching players, or null for the piece-square tables
+	 * @return			The player
+	 * @throws			IllegalArgumentException	If the description is invalid
+	 */
+	static Player createPlayer(String spec, long seed, NeuralNetwork network) {
+		try {
+			if (spec.startsWith("ponder:depth:")) {
+				return new PonderingPlayer(Integer.parseInt(spec.substring(13)), 0, network);
+			} else if (spec.startsWith("ponder:time:")) {
+				return new PonderingPlayer(Search.MAX_PLY, Long.parseLong(spec.substring(12)), network);
+			} else if (spec.equals("random")) {
+				return new RandomPlayer(seed);
+			} else if (spec.startsWith("depth:")) {
+				return new SearchPlayer(Integer.parseInt(spec.substring(6)), 0, network);
+			} else if (spec.startsWith("time:")) {
+				return new SearchPlayer(Search.MAX_PLY, Long.parseLong(spec.substring(5)), network);
+			}
+		} catch (NumberFormatException e) {}
+
+		throw new IllegalArgumentException("Invalid player: " + spec);
+	}
+
+	Result play(int id) {
+		Game game = new Game();
+		Random random = new Random(seed * 1000003 + id / 2);
+		StringBuilder history = new StringBuilder();
+
+		// Both games of a pair start from the same opening
+		for (int i = 0; i < openingPlies; i++) {
+			Move[] moves = game.validMoves();
+			if (moves.length == 0) {
+				break;
+			}
+			Move move = moves[random.nextInt(moves.length)];
+			history.append(' ').append(PackedMove.toString(PackedMove.of(move)));
+			game.move(move);
+		}
+
+		Player first = createPlayer(player1, seed + id, network1);
+		Player second = createPlayer(player2, seed + id + 1, network2);
+		boolean firstIsWhite = id % 2 == 0;
+		Player white = firstIsWhite ? first : second;
+		Player black = firstIsWhite ? second : first;
+
+		Result result = new Result();
+		result.id = id;
+		result.white = firstIsWhite ? player1 : player2;
+		result.black = firstIsWhite ? player2 : player1;
+
+		// The score of white
+		double score;
+		try {
+			while (true) {
+				Game.DrawReason draw = game.drawReason();
+				if (draw != Game.DrawReason.NONE) {
+					score = 0.5;
+					result.reason = draw == Game.DrawReason.REPETITION ? "repetition" : "fiftymoves";
+					break;
+				} else if (game.getTurn() >= maxPlies) {
+					score = 0.5;
+					result.reason = "maxplies";
+					break;
+				}
+
+				Game.Status status = game.status();
+				if (status == Game.Status.CHECKMATE) {
+					score = game.getTurn() % 2 == 0 ? 0 : 1;
+					result.reason = "checkmate";
+					break;
+				} else if (status == Game.Status.STALEMATE) {
+					score = 0.5;
+					result.reason = "stalemate";
+					break;
+				}
+
+				Player player = game.getTurn() % 2 == 0 ? white : black;
+				Move move = player.chooseMove(game);
+				if (move == null) {
+					throw new IllegalStateException(player + " didn't choose a move");
+				}
+
+				history.append(' ').append(PackedMove.toString(PackedMove.of(move)));
+				game.move(move);
+			}
+		} finally {
+			for (Player player : new Player[] {white, black}) {
+				if (player instanceof PonderingPlayer) {
+					((PonderingPlayer) player).close();
+				}
+			}
+		}
+
+		result.plies = game.getTurn();
+		result.moves = history.toString();
+		result.score = firstIsWhite ? score : 1 - score;
+		result.result = score == 1 ? "1-0" : score == 0 ? "0-1" : "1/2-1/2";
+		result.nodes = white.nodes() + black.nodes();
+		result.time = white.time() + black.time();
+		for (Player player : new Player[] {white, black}) {
+			if (player instanceof SearchPlayer) {
+				result.cutoffs += ((SearchPlayer) player).cutoffs();
+				result.firstMoveCutoffs += ((SearchPlayer) player).firstMoveCutoffs();
+			} else if (player instanceof PonderingPlayer) {
+				result.ponderHits += ((PonderingPlayer) player).hits();
+				result.ponderMisses += ((PonderingPlayer) player).misses();
+			}
+		}
+
+		return result;
+	}
+
+	// Converts an expected score to an Elo difference
+	static double elo(double score) {
+		score = Math.min(Math.max(score, 1e-6), 1 - 1e-6);
+		return -400 * Math.log10(1 / score - 1);
+	}
+
+	// Converts an Elo difference to an expected score
+	static double expectedScore(double elo) {
+		return 1 / (1 + Math.pow(10, -elo / 400));
+	}
+
+	void run() throws IOException, InterruptedException, ExecutionException {
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		CompletionService<Result> completion = new ExecutorCompletionService<Result>(executor);
+		PrintWriter out = log == null ?
+				new PrintWriter(System.out, true) :
+				new PrintWriter(new FileWriter(log), true);
+		PrintWriter archiveOut = archive == null ? null :
+				new PrintWriter(new BufferedWriter(new FileWriter(archive)));
+
+		long start = System.nanoTime();
+		for (int i = 0; i < games; i++) {
+			final int id = i;
+			completion.submit(new Callable<Result>() {
+				public Result call() {
+					return play(id);
+				}
+			});
+		}
+
+		int wins = 0, draws = 0, losses = 0;
+		long nodes = 0, time = 0, cutoffs = 0, firstMoveCutoffs = 0;
+		long ponderHits = 0, ponderMisses = 0;
+		try {
+			for (int i = 0; i < games; i++) {
+				Result r = completion.take().get();
+				out.println(r.id + " " + r.white + " " + r.black + " " + r.result + " " + r.reason + " " + r.plies);
+				if (archiveOut != null) {
+					archiveOut.println(r.id + r.moves);
+				}
+
+				if (r.score == 1) {
+					wins++;
+				} else if (r.score == 0) {
+					losses++;
+				} else {
+					draws++;
+				}
+				nodes += r.nodes;
+				time += r.time;
+				cutoffs += r.cutoffs;
+				firstMoveCutoffs += r.firstMoveCutoffs;
+				ponderHits += r.ponderHits;
+				ponderMisses += r.ponderMisses;
+			}
+		} finally {
+			executor.shutdownNow();
+			if (log != null) {
+				out.close();
+			}
+			if (archiveOut != null) {
+				archiveOut.close();
+			}
+		}
+
+		double seconds = (System.nanoTime() - start) / 1e9;
+		report(wins, draws, losses, seconds, nodes, time);
+		if (cutoffs > 0) {
+			System.out.printf("Cutoffs:    %d, %.1f%% on the first move%n",
+					cutoffs, 100.0 * firstMoveCutoffs / cutoffs);
+		}
+		if (ponderHits + ponderMisses > 0) {
+			System.out.printf("Pondering:  %d hits, %d misses (%.1f%% hits)%n",
+					ponderHits, ponderMisses, 100.0 * ponderHits / (ponderHits + ponderMisses));
+		}
+		
+		if (metrics) {
+			System.out.print(Metrics.dump());
+		}
+	}
+
+	void report(int wins, int draws, int losses, double seconds, long nodes, long time) {
+		int n = wins + draws + losses;
+		double score = (wins + 0.5 * draws) / n;
+		double variance = (wins * Math.pow(1 - score, 2) +
+				draws * Math.pow(0.5 - score, 2) +
+				losses * Math.pow(score, 2)) / n;
+		double margin = 1.96 * Math.sqrt(variance / n);
+
+		System.out.printf("Games:      %d in %.1f s (%.2f games/s)%n", n, seconds, n / seconds);
+		System.out.printf("Nodes/s:    %.0f%n", time > 0 ? nodes / (time / 1e9) : 0.0);
+		System.out.printf("Result:     %s vs %s: +%d =%d -%d (%.1f%%)%n",
+				player1, player2, wins, draws, losses, 100 * score);
+		System.out.printf("Elo:        %.1f +/- %.1f%n",
+				elo(score), (elo(score + margin) - elo(score - margin)) / 2);
+
+		// Sequential probability ratio test of elo0 against elo1,
+		// using the normal approximation of the game results.
+		double s0 = expectedScore(elo0);
+		double s1 = expectedScore(elo1);
+		double llr = variance == 0 ? 0 : n * (s1 - s0) * (2 * score - s0 - s1) / (2 * variance);
+		double lower = Math.log(0.05 / 0.95);
+		double upper = Math.log(0.95 / 0.05);
+		String verdict = llr >= upper ? "H1 accepted" : llr <= lower ? "H0 accepted" : "inconclusive";
+		System.out.printf("SPRT:       elo0=%.1f elo1=%.1f LLR=%.2f [%.2f, %.2f] %s%n",
+				elo0, elo1, llr, lower, upper, verdict);
+	}
+
+	static void usage() {
+		System.err.println("Usage: java chess.Tournament [options]");
+		System.err.println("  -games N          Number of games to play (default 100)");
+		System.err.println("  -threads N        Number of games to play at once (default: number of cores)");
+		System.err.println("  -player1 SPEC     First player: random, depth:N or time:MILLIS, optionally");
+		System.err.println("                    prefixed with ponder: (default depth:2)");
+		System.err.println("  -player2 SPEC     Second player (default random)");
+		System.err.println("  -maxplies N       Adjudicate a draw after N plies (default 300)");
+		System.err.println("  -openingplies N   Number of random moves to start each pair of games with (default 4)");
+		System.err.println("  -seed N           Seed for openings and random players (default 1)");
+		System.err.println("  -log FILE         Write the game results to FILE instead of standard output");
+		System.err.println("  -archive FILE     Write the moves of the games to FILE, one game per line");
+		System.err.println("  -elo0 X -elo1 Y   Hypotheses of the SPRT, in Elo (default 0 and 5)");
+		System.err.println("  -metrics on       Collect engine metrics, and print them at the end");
+		System.err.println("  -network1 FILE    Evaluate with the neural network in FILE for player 1");
+		System.err.println("  -network2 FILE    Evaluate with the neural network in FILE for player 2");
+		System.exit(1);
+	}
+
+	public static void main(String[] args) throws Exception {
+		Tournament t = new Tournament();
+
+		try {
+			for (int i = 0; i < args.length; i += 2) {
+				String value = args[i + 1];
+				switch (args[i]) {
+				case "-games":
+					t.games = Integer.parseInt(value);
+					break;
+				case "-threads":
+					t.threads = Integer.parseInt(value);
+					break;
+				case "-player1":
+					t.player1 = value;
+					break;
+				case "-player2":
+					t.player2 = value;
+					break;
+				case "-maxplies":
+					t.maxPlies = Integer.parseInt(value);
+					break;
+				case "-openingplies":
+					t.openingPlies = Integer.parseInt(value);
+					break;
+				case "-seed":
+					t.seed = Long.parseLong(value);
+					break;
+				case "-log":
+					t.log = value;
+					break;
+				case "-archive":
+					t.archive = value;
+					break;
+				case "-elo0":
+					t.elo0 = Double.parseDouble(value);
+					break;
+				case "-elo1":
+					t.elo1 = Double.parseDouble(value);
+					break;
+				case "-metrics":
+					t.metrics = value.equals("on");
+					break;
+				case "-network1":
+					t.network1 = NeuralNetwork.load(value);
+					break;
+				case "-network2":
+					t.network2 = NeuralNetwork.load(value);
+					break;
+				default:
+					usage();
+				}
+			}
+
+			createPlayer(t.player1, 0);
+			createPlayer(t.player2, 0);
+		} catch (RuntimeException e) {
+			usage();
+		}
+
+		if (t.games <= 0 || t.threads <= 0) {
+			usage();
+		}
+
+		if (t.metrics) {
+			Metrics.enable();
+		}
+		
+		t.run();
+	}
+}
@@ -0,0 +1,419 @@
+package chess;
+
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import chess.Piece.Color;
+
+/**
+ * Files of positions from played games, each with a score from a search
+ * and the result of the game, for tuning the evaluation offline.
+ *
+ * Every position is stored as a record of {@link #RECORD_SIZE} bytes, so
+ * record n of a file starts at byte n * RECORD_SIZE, and a record can be
+ * read without reading the ones before it. The records are big-endian:
+ * <ul>
+ * <li>32 bytes of board, one 4-bit code per square, square 2i in the low
+ * half and square 2i+1 in the high half of byte i. The code is 0 for an
+ * empty square, and 1 + {@link Zobrist#index} for a piece.</li>
+ * <li>The short score from the search, in centipawns from the view of the
+ * player to move.</li>
+ * <li>The byte result of the game: 0 if black won, 1 for a draw and 2 if
+ * white won.</li>
+ * <li>The byte player to move: 0 for white and 1 for black.</li>
+ * <li>The short number of plies played before the position.</li>
+ * <li>The short halfmove clock of the position.</li>
+ * </ul>
+ *
+ * Records are written with a {@link Writer}, which starts a new file when
+ * the current one is full, and read with a {@link Reader}, which maps the
+ * files into memory so records can be read in any order.
+ *
+ * @author	Sindre Stephansen
+ * @see		SelfPlay
+ */
+public final class TrainingData {
+	/**
+	 * Writes records to a series of files named 'prefix-0000.bin',
+	 * 'prefix-0001.bin' and so on. Records are gathered in a buffer, which
+	 * is written to the file when it is full, and at least every second,
+	 * so little is lost if the program is killed. A new file is started
+	 * when the current file can't take another record. The writer can be
+	 * used by several threads at once.
+	 */
+	public static final class Writer implements Closeable {
+		private final String prefix;
+		private final long maxFileSize;
+		private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		private final List<String> files = new ArrayList<String>();
+
+		private FileChannel channel = null;
+		private long fileSize = 0;
+		private long records = 0;
+		private long lastFlush = System.nanoTime();
+
+		/**
+		 * Class constructor. The first file is created straight away.
+		 *
+		 * @param prefix		The start of the names of the files
+		 * @param maxFileSize	The largest size of a file, in bytes
+		 * @throws				IOException	If the first file can't be created
+		 * @throws				IllegalArgumentException	If maxFileSize can't hold
+		 * 						a record, or is larger than a file that can be mapped
+		 */
+		public Writer(String prefix, long maxFileSize) throws IOException {
+			if (maxFileSize < RECORD_SIZE || maxFileSize > Integer.MAX_VALUE) {
+				throw new IllegalArgumentException("Invalid file size: " + maxFileSize);
+			}
+
+			this.prefix = prefix;
+			this.maxFileSize = maxFileSize;
+			rotate();
+		}
+
+		// Closes the current file, if there is one, and starts the next
+		private void rotate() throws IOException {
+			if (channel != null) {
+				flush();
+				channel.force(false);
+				channel.close();
+			}
+
+			String filename = String.format("%s-%04d.bin", prefix, files.size());
+			channel = new FileOutputStream(filename).getChannel();
+			files.add(filename);
+			fileSize = 0;
+		}
+
+		/**
+		 * Writes records. Only whole records are written, and a record is
+		 * never split between two files.
+		 *
+		 * @param records	The records, from the position to the limit of the buffer
+		 * @throws			IOException	If the records can't be written
+		 * @throws			IllegalArgumentException	If the buffer doesn't hold whole records
+		 */
+		public synchronized void write(ByteBuffer records) throws IOException {
+			if (records.remaining() % RECORD_SIZE != 0) {
+				throw new IllegalArgumentException("Not whole records: " + records.remaining() + " bytes");
+			}
+
+			int limit = records.limit();
+			while (records.hasRemaining()) {
+				if (fileSize + RECORD_SIZE > maxFileSize) {
+					rotate();
+				}
+				if (buffer.remaining() < RECORD_SIZE) {
+					flush();
+				}
+
+				records.limit(records.position() + RECORD_SIZE);
+				buffer.put(records);
+				records.limit(limit);
+				fileSize += RECORD_SIZE;
+				this.records++;
+			}
+
+			if (System.nanoTime() - lastFlush > FLUSH_INTERVAL) {
+				flush();
+			}
+		}
+
+		/**
+		 * Writes the buffered records to the file.
+		 *
+		 * @throws	IOException	If the records can't be written
+		 */
+		public synchronized void flush() throws IOException {
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			buffer.clear();
+			lastFlush = System.nanoTime();
+		}
+
+		/**
+		 * Writes the buffered records, and closes the current file.
+		 * The writer can't be used after this.
+		 *
+		 * @throws	IOException	If the records can't be written
+		 */
+		public synchronized void close() throws IOException {
+			if (channel != null) {
+				flush();
+				channel.force(false);
+				channel.close();
+				channel = null;
+			}
+		}
+
+		/**
+		 * Returns the names of the files written so far, in order.
+		 *
+		 * @return	The file names
+		 */
+		public synchronized List<String> files() {
+			return Collections.unmodifiableList(new ArrayList<String>(files));
+		}
+
+		/**
+		 * Returns the number of records written so far.
+		 *
+		 * @return	The number of records
+		 */
+		public synchronized long records() {
+			return records;
+		}
+	}
+
+	/**
+	 * Reads records from a series of files. The files are mapped into
+	 * memory, so reading a record only touches the page it is on, and
+	 * records can be sampled in random order without reading the files
+	 * into the heap. The files must not change while they are read.
+	 */
+	public static final class Reader {
+		private final ByteBuffer[] buffers;
+		// The index of the first record of each file, and the total at the end
+		private final long[] starts;
+
+		/**
+		 * Class constructor. The files are mapped straight away.
+		 *
+		 * @param files	The files to read, as written by a {@link Writer}
+		 * @throws		IOException	If a file can't be read
+		 * @throws		IllegalArgumentException	If a file doesn't hold whole records
+		 */
+		public Reader(List<String> files) throws IOException {
+			buffers = new ByteBuffer[files.size()];
+			starts = new long[files.size() + 1];
+
+			for (int i = 0; i < buffers.length; i++) {
+				RandomAccessFile file = new RandomAccessFile(files.get(i), "r");
+				try {
+					long length = file.length();
+					if (length % RECORD_SIZE != 0 || length > Integer.MAX_VALUE) {
+						throw new IllegalArgumentException("Invalid file: " + files.get(i));
+					}
+					// The mapping stays valid after the file is closed
+					buffers[i] = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+					starts[i + 1] = starts[i] + length / RECORD_SIZE;
+				} finally {
+					file.close();
+				}
+			}
+		}
+
+		// Returns the file a record is in
+		private int file(long index) {
+			if (index < 0 || index >= size()) {
+				throw new IndexOutOfBoundsException("No record " + index);
+			}
+
+			int low = 0;
+			int high = buffers.length - 1;
+			while (low < high) {
+				int middle = (low + high + 1) >>> 1;
+				if (starts[middle] <= index) {
+					low = middle;
+				} else {
+					high = middle - 1;
+				}
+			}
+			return low;
+		}
+
+		private int offset(int file, long index) {
+			return (int) (index - starts[file]) * RECORD_SIZE;
+		}
+
+		/**
+		 * Returns the number of records in the files.
+		 *
+		 * @return	The number of records
+		 */
+		public long size() {
+			return starts[starts.length - 1];
+		}
+
+		/**
+		 * Sets up the position of a record in a game. The history of the game is cleared.
+		 *
+		 * @param index	The index of the record
+		 * @param game	The game to set up
+		 * @throws		IndexOutOfBoundsException	If there is no such record
+		 */
+		public void load(long index, Game game) {
+			int file = file(index);
+			decode(buffers[file], offset(file, index), game);
+		}
+
+		/**
+		 * Returns the score of a record.
+		 *
+		 * @param index	The index of the record
+		 * @return		The score in centipawns, from the view of the player to move
+		 * @throws		IndexOutOfBoundsException	If there is no such record
+		 */
+		public int score(long index) {
+			int file = file(index);
+			return buffers[file].getShort(offset(file, index) + 32);
+		}
+
+		/**
+		 * Returns the result of the game of a record.
+		 *
+		 * @param index	The index of the record
+		 * @return		0 if black won, 1 for a draw and 2 if white won
+		 * @throws		IndexOutOfBoundsException	If there is no such record
+		 */
+		public int result(long index) {
+			int file = file(index);
+			return buffers[file].get(offset(file, index) + 34);
+		}
+
+		/**
+		 * Returns the indexes of all records in random order, for reading
+		 * the records shuffled.
+		 *
+		 * @param random	The source of randomness
+		 * @return			The indexes of the records, shuffled
+		 * @throws			IllegalStateException	If there are too many records for an array
+		 */
+		public long[] shuffled(Random random) {
+			if (size() > Integer.MAX_VALUE - 8) {
+				throw new IllegalStateException("Too many records to shuffle: " + size());
+			}
+
+			long[] order = new long[(int) size()];
+			for (int i = 0; i < order.length; i++) {
+				int j = random.nextInt(i + 1);
+				order[i] = order[j];
+				order[j] = i;
+			}
+			return order;
+		}
+	}
+
+	/**
+	 * The size of a record, in bytes.
+	 */
+	public static final int RECORD_SIZE = 40;
+
+	/**
+	 * The result of a game that black won.
+	 */
+	public static final int BLACK_WINS = 0;
+
+	/**
+	 * The result of a drawn game.
+	 */
+	public static final int DRAW = 1;
+
+	/**
+	 * The result of a game that white won.
+	 */
+	public static final int WHITE_WINS = 2;
+
+	private static final int BUFFER_SIZE = 1 << 20;
+	private static final long FLUSH_INTERVAL = 1000000000L;
+
+	private TrainingData() {}
+
+	/**
+	 * Writes a record of the current position of a game at the position
+	 * of a buffer, and moves the position past it.
+	 *
+	 * @param game		The game
+	 * @param score		The score of the position, from the view of the player to move.
+	 * 					It is clamped to the range of a short.
+	 * @param result	The result of the game, such as {@link #DRAW}
+	 * @param out		The buffer to write to
+	 */
+	public static void encode(Game game, int score, int result, ByteBuffer out) {
+		for (int square = 0; square < 64; square += 2) {
+			out.put((byte) (code(game, square) | code(game, square + 1) << 4));
+		}
+		out.putShort((short) Math.max(Math.min(score, Short.MAX_VALUE), Short.MIN_VALUE));
+		out.put((byte) result);
+		out.put((byte) game.getCurrentColor().ordinal());
+		out.putShort((short) Math.min(game.getTurn(), Short.MAX_VALUE));
+		out.putShort((short) Math.min(game.getHalfmoveClock(), Short.MAX_VALUE));
+	}
+
+	/**
+	 * Changes the result of records already written to a buffer.
+	 *
+	 * @param buffer	The buffer
+	 * @param from		The offset of the first record
+	 * @param to		The offset after the last record
+	 * @param result	The result of the game, such as {@link #DRAW}
+	 */
+	public static void setResult(ByteBuffer buffer, int from, int to, int result) {
+		for (int offset = from; offset < to; offset += RECORD_SIZE) {
+			buffer.put(offset + 34, (byte) result);
+		}
+	}
+
+	/**
+	 * Sets up the position of a record in a game. The history of the game is cleared.
+	 *
+	 * @param in		The buffer to read from
+	 * @param offset	The offset of the record in the buffer
+	 * @param game		The game to set up
+	 * @throws			IllegalArgumentException	If the record has an invalid piece code
+	 */
+	public static void decode(ByteBuffer in, int offset, Game game) {
+		for (int square = 0; square < 64; square++) {
+			int code = (in.get(offset + square / 2) >> (square % 2 * 4)) & 15;
+			Piece piece = null;
+			if (code > 12) {
+				throw new IllegalArgumentException("Invalid piece code: " + code);
+			} else if (code > 6) {
+				piece = Game.BLACK[code - 7];
+			} else if (code > 0) {
+				piece = Game.WHITE[code - 1];
+			}
+			game.board[square % 8][square / 8] = piece;
+		}
+
+		// The turn keeps its parity, so the right player is to move
+		int turn = in.getShort(offset + 36);
+		if (turn % 2 != in.get(offset + 35)) {
+			turn++;
+		}
+		game.turn = turn;
+		game.captureStack.clear();
+		game.undoStack.clear();
+		game.redoStack.clear();
+		game.promotionStack.clear();
+		game.refresh();
+		game.halfmoveClock = in.getShort(offset + 38);
+	}
+
+	private static int code(Game game, int square) {
+		Piece piece = game.getPiece(square % 8, square / 8);
+		return piece == null ? 0 : Zobrist.index(piece) + 1;
+	}
+
+	/**
+	 * Returns the result of a game from the view of one player.
+	 *
+	 * @param result	The result of the game, such as {@link #DRAW}
+	 * @param color		The player
+	 * @return			1 for a win, 0.5 for a draw and 0 for a loss
+	 */
+	public static double score(int result, Color color) {
+		double white = result / 2.0;
+		return color == Color.WHITE ? white : 1 - white;
+	}
+}
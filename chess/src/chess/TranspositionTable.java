@@ -0,0 +1,182 @@
+package chess;
+
+import java.util.Arrays;
+
+/**
+ * A hash table of search results, keyed by the Zobrist key of the
+ * position (see {@link Game#getKey}). When the search reaches a position
+ * it has already searched, possibly through a different move order, the
+ * stored result can be used instead of searching the position again,
+ * and the stored best move is searched first otherwise.
+ *
+ * Each entry is two longs: the packed data, and the key exclusive-ored
+ * with the data. An entry is only used if the two match, so the table can
+ * be shared between threads without locking, since an entry torn by two
+ * threads writing at the same time is simply ignored.
+ *
+ * @author	Sindre Stephansen
+ * @see		Search
+ */
+public class TranspositionTable {
+	/**
+	 * The stored score is exact.
+	 */
+	public static final int EXACT = 0;
+
+	/**
+	 * The stored score is a lower bound, the real score may be higher.
+	 */
+	public static final int LOWER = 1;
+
+	/**
+	 * The stored score is an upper bound, the real score may be lower.
+	 */
+	public static final int UPPER = 2;
+
+	private final long[] keys;
+	private final long[] data;
+	private final int mask;
+
+	/**
+	 * Class constructor.
+	 *
+	 * @param bits	The table holds 2^bits entries of 16 bytes each
+	 */
+	public TranspositionTable(int bits) {
+		keys = new long[1 << bits];
+		data = new long[1 << bits];
+		mask = (1 << bits) - 1;
+	}
+
+	/*
+	 * Utility methods
+	 */
+
+	// Mate scores are stored relative to the position instead of the root,
+	// so they stay correct when the position is reached at another ply.
+	private static int toTable(int score, int ply) {
+		if (score >= Search.MATE - Search.MAX_PLY) {
+			return score + ply;
+		} else if (score <= -Search.MATE + Search.MAX_PLY) {
+			return score - ply;
+		}
+		return score;
+	}
+
+	private static int fromTable(int score, int ply) {
+		if (score >= Search.MATE - Search.MAX_PLY) {
+			return score - ply;
+		} else if (score <= -Search.MATE + Search.MAX_PLY) {
+			return score + ply;
+		}
+		return score;
+	}
+
+	/*
+	 * Public methods
+	 */
+
+	/**
+	 * Looks up a position. The result is the packed entry, which can be
+	 * read with {@link #move}, {@link #score}, {@link #depth} and
+	 * {@link #bound}, or 0 if the position isn't in the table.
+	 *
+	 * @param key	The key of the position
+	 * @return		The packed entry, or 0
+	 */
+	public long probe(long key) {
+		int index = (int) key & mask;
+		long d = data[index];
+		if ((keys[index] ^ d) != key || d == 0) {
+			return 0;
+		}
+		return d;
+	}
+
+	/**
+	 * Stores the result of searching a position. A deeper result for the
+	 * same position isn't replaced by a shallower one.
+	 *
+	 * @param key	The key of the position
+	 * @param move	The best move, as a packed move, or {@link PackedMove#NONE}
+	 * @param score	The score, from the point of view of the player to move
+	 * @param depth	The depth that was searched
+	 * @param bound	{@link #EXACT}, {@link #LOWER} or {@link #UPPER}
+	 * @param ply	The distance from the root of the search
+	 */
+	public void store(long key, int move, int score, int depth, int bound, int ply) {
+		int index = (int) key & mask;
+		long old = data[index];
+
+		if ((keys[index] ^ old) == key && old != 0 && depth < depth(old)) {
+			// Keep the deeper result, but remember a new best move
+			if (move == PackedMove.NONE || move == move(old)) {
+				return;
+			}
+			score = fromTable(score(old), 0);
+			depth = depth(old);
+			bound = bound(old);
+			ply = 0;
+		}
+
+		long d = ((long) ((move + 1) & 0x1FFF)) |
+				((long) (bound & 3) << 13) |
+				((long) (Math.max(depth, 0) & 0xFF) << 15) |
+				((long) toTable(score, ply) << 32);
+		data[index] = d;
+		keys[index] = key ^ d;
+	}
+
+	/**
+	 * Returns the best move of an entry.
+	 *
+	 * @param entry	The packed entry from {@link #probe}
+	 * @return		The packed move, or {@link PackedMove#NONE}
+	 */
+	public static int move(long entry) {
+		return (int) (entry & 0x1FFF) - 1;
+	}
+
+	/**
+	 * Returns the bound of an entry.
+	 *
+	 * @param entry	The packed entry from {@link #probe}
+	 * @return		{@link #EXACT}, {@link #LOWER} or {@link #UPPER}
+	 */
+	public static int bound(long entry) {
+		return (int) (entry >>> 13) & 3;
+	}
+
+	/**
+	 * Returns the depth of an entry.
+	 *
+	 * @param entry	The packed entry from {@link #probe}
+	 * @return		The depth that was searched
+	 */
+	public static int depth(long entry) {
+		return (int) (entry >>> 15) & 0xFF;
+	}
+
+	/**
+	 * Returns the score of an entry, relative to the given ply.
+	 *
+	 * @param entry	The packed entry from {@link #probe}
+	 * @param ply	The distance from the root of the search
+	 * @return		The score, from the point of view of the player to move
+	 */
+	public static int score(long entry, int ply) {
+		return fromTable((int) (entry >> 32), ply);
+	}
+
+	private static int score(long entry) {
+		return (int) (entry >> 32);
+	}
+
+	/**
+	 * Empties the table.
+	 */
+	public void clear() {
+		Arrays.fill(keys, 0);
+		Arrays.fill(data, 0);
+	}
+}
@@ -0,0 +1,56 @@
+package chess;
+
+import java.util.Random;
+
+/**
+ * Random numbers for Zobrist hashing of positions. The key of a position
+ * is the exclusive or of one number per piece on the board, plus one
+ * number if black is to move. Since exclusive or is its own inverse, the
+ * key can be updated incrementally as pieces are added and removed, see
+ * {@link Game#getKey}.
+ * 
+ * @author	Sindre Stephansen
+ * @see		Game#getKey
+ */
+final class Zobrist {
+	// One number per piece per square, indexed by index(piece)*64 + square
+	private static final long[] PIECES = new long[12 * 64];
+	
+	/**
+	 * The number that is added to the key when black is to move.
+	 */
+	static final long BLACK_TO_MOVE;
+	
+	static {
+		// A fixed seed, so keys are the same between runs
+		Random random = new Random(0x5EED_C0DEL);
+		for (int i = 0; i < PIECES.length; i++) {
+			PIECES[i] = random.nextLong();
+		}
+		BLACK_TO_MOVE = random.nextLong();
+	}
+	
+	private Zobrist() {}
+	
+	/**
+	 * Returns an index between 0 and 11 for the given piece. White pieces
+	 * come first, in the order of {@link Piece.Type}.
+	 * 
+	 * @param piece	The piece
+	 * @return		The index of the piece
+	 */
+	static int index(Piece piece) {
+		return piece.type.ordinal() + 6 * piece.color.ordinal();
+	}
+	
+	/**
+	 * Returns the number for the given piece on the given square.
+	 * 
+	 * @param piece		The piece
+	 * @param square	The square, between 0 and 63
+	 * @return			The random number for the piece and square
+	 */
+	static long piece(Piece piece, int square) {
+		return PIECES[index(piece) * 64 + square];
+	}
+}